@@ -0,0 +1,36 @@
+package com.example.xianyu.bench;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 用动态代理生成内存版 Repository，只实现基准测试用到的方法，
+ * 避免数据库往返干扰 CPU/内存分配的测量结果
+ */
+public final class InMemoryRepositories {
+
+    private InMemoryRepositories() {
+    }
+
+    public static <T> T proxy(Class<T> type, Map<String, Function<Object[], Object>> handlers) {
+        Object instance = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (self, method, args) -> {
+                    Function<Object[], Object> handler = handlers.get(method.getName());
+                    if (handler != null) {
+                        return handler.apply(args == null ? new Object[0] : args);
+                    }
+                    switch (method.getName()) {
+                        case "toString":
+                            return type.getSimpleName() + "(in-memory)";
+                        case "hashCode":
+                            return System.identityHashCode(self);
+                        case "equals":
+                            return self == args[0];
+                        default:
+                            throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName());
+                    }
+                });
+        return type.cast(instance);
+    }
+}
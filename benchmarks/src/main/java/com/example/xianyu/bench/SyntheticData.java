@@ -0,0 +1,133 @@
+package com.example.xianyu.bench;
+
+import com.example.xianyu.entity.Conversation;
+import com.example.xianyu.entity.Message;
+import com.example.xianyu.entity.PondPost;
+import com.example.xianyu.entity.Product;
+import com.example.xianyu.entity.User;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 基准测试用的合成数据（固定随机种子，保证每次运行数据一致）
+ */
+public final class SyntheticData {
+
+    private static final String[] CATEGORIES = {"手机数码", "电脑办公", "潮流服饰", "家居生活"};
+
+    private SyntheticData() {
+    }
+
+    /**
+     * 在售且带图片的商品，发布时间分布在最近 60 天内
+     */
+    public static List<Product> products(int rows, long seed) {
+        Random random = new Random(seed);
+        LocalDateTime now = LocalDateTime.now();
+        List<Product> list = new ArrayList<>(rows);
+        for (int i = 1; i <= rows; i++) {
+            Product p = new Product();
+            p.setId((long) i);
+            p.setUserId((long) (1 + random.nextInt(Math.max(1, rows / 10))));
+            p.setTitle("二手商品 " + i);
+            p.setDescription("描述".repeat(random.nextInt(200)));
+            p.setPrice(BigDecimal.valueOf(1 + random.nextInt(10000)));
+            p.setCategory(CATEGORIES[random.nextInt(CATEGORIES.length)]);
+            int images = 1 + random.nextInt(4);
+            StringBuilder urls = new StringBuilder();
+            for (int j = 0; j < images; j++) {
+                if (j > 0) {
+                    urls.append(',');
+                }
+                urls.append("/uploads/products/user").append(p.getUserId()).append('/').append(i).append('-').append(j).append(".jpg");
+            }
+            p.setImageUrl(urls.toString());
+            p.setStatus(0);
+            p.setCreateTime(now.minusSeconds(random.nextInt(60 * 24 * 60 * 60)));
+            list.add(p);
+        }
+        return list;
+    }
+
+    /**
+     * 某个用户的会话摘要：每个会话的对方不同，1/10 为鱼塘会话，约 1/3 的最后一条消息由自己发出，按最后消息时间倒序
+     */
+    public static List<Conversation> conversations(long userId, int count, long seed) {
+        Random random = new Random(seed);
+        LocalDateTime now = LocalDateTime.now();
+        List<Conversation> list = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            long other = userId + i;
+            boolean pond = i % 10 == 0;
+            boolean fromMe = random.nextInt(3) == 0;
+            int unread = fromMe ? 0 : random.nextInt(4);
+            Conversation c = new Conversation();
+            c.setId((long) i);
+            c.setUserA(userId);
+            c.setUserB(other);
+            c.setKind(pond ? Conversation.KIND_POND : Conversation.KIND_PRODUCT);
+            c.setRefId((long) i);
+            c.setLastMessageId((long) i * 20);
+            c.setLastSenderId(fromMe ? userId : other);
+            c.setLastSenderName("user" + (fromMe ? userId : other));
+            c.setLastTitle(pond ? "评论了你的动态：鱼塘动态" : "关于商品：二手商品 " + i);
+            c.setLastContent("消息内容 " + i);
+            c.setLastType(pond ? "pond" : "chat");
+            c.setLastTime(now.minusSeconds(random.nextInt(30 * 24 * 60 * 60)));
+            c.setUnreadA(unread);
+            c.setUnreadB(0);
+            list.add(c);
+        }
+        list.sort(Comparator.comparing(Conversation::getLastTime).thenComparing(Conversation::getId).reversed());
+        return list;
+    }
+
+    /**
+     * 两个用户围绕一个商品的双向会话，按时间正序
+     */
+    public static List<Message> thread(long productId, long userA, long userB, int rows) {
+        LocalDateTime start = LocalDateTime.now().minusSeconds(rows);
+        List<Message> list = new ArrayList<>(rows);
+        for (int i = 1; i <= rows; i++) {
+            boolean fromA = i % 2 == 0;
+            Message m = new Message();
+            m.setId((long) i);
+            m.setUserId(fromA ? userB : userA);
+            m.setSenderId(fromA ? userA : userB);
+            m.setSenderName("user" + (fromA ? userA : userB));
+            m.setProductId(productId);
+            m.setType("chat");
+            m.setTitle("关于商品：二手商品 " + productId);
+            m.setContent("聊天内容 " + i);
+            m.setReadFlag(true);
+            m.setCreateTime(start.plusSeconds(i));
+            list.add(m);
+        }
+        return list;
+    }
+
+    public static User user(long id) {
+        User u = new User();
+        u.setId(id);
+        u.setUsername("user" + id);
+        u.setPassword("x");
+        return u;
+    }
+
+    public static PondPost post(long id, long ownerId) {
+        PondPost p = new PondPost();
+        p.setId(id);
+        p.setUserId(ownerId);
+        p.setUsername("user" + ownerId);
+        p.setContent("这是一条鱼塘动态的内容，用于生成消息中心的帖子标题快照 " + id);
+        p.setCategory("other");
+        p.setLikeCount(0);
+        p.setCommentCount(0);
+        return p;
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.xianyu.controller;
+
+import com.example.xianyu.bench.InMemoryRepositories;
+import com.example.xianyu.bench.SyntheticData;
+import com.example.xianyu.entity.Conversation;
+import com.example.xianyu.entity.Message;
+import com.example.xianyu.entity.Product;
+import com.example.xianyu.entity.User;
+import com.example.xianyu.repository.ConversationRepository;
+import com.example.xianyu.repository.MessageRepository;
+import com.example.xianyu.repository.ProductRepository;
+import com.example.xianyu.repository.UserRepository;
+import com.example.xianyu.service.HomeRecommendEngine;
+import com.example.xianyu.service.ChatPushService;
+import com.example.xianyu.service.EntityBatchLoader;
+import com.example.xianyu.service.MessageService;
+import com.example.xianyu.service.ProductSearchIndex;
+import com.example.xianyu.service.ProductService;
+import com.example.xianyu.service.UnreadCounterStore;
+import com.example.xianyu.service.UnreadPushService;
+import com.example.xianyu.service.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Pageable;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 消息中心热点路径基准（Repository 为内存实现，只测量应用层 CPU 与内存分配）
+ * - buildThreads：消息中心第一页会话摘要转换为展示对象（收件箱共 rows 条消息，约 20 条一个会话）
+ * - messagesApi：/messages/api 一次轮询（第一页会话 + JSON Map 构造）
+ * - threadApiDelta：/messages/thread/api 一次增量轮询（sinceId 之后有 1 条新消息），会话内共 rows 条消息
+ * - threadApiIdle：/messages/thread/api 一次没有新消息的增量轮询（204）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class MessageControllerBenchmark {
+
+    private static final long ME = 1L;
+    private static final long OTHER = 2L;
+    private static final long PRODUCT_ID = 1L;
+
+    @Param({"1000", "100000", "1000000"})
+    int rows;
+
+    private List<Conversation> firstPage;
+    private MessageController controller;
+    private MockHttpSession session;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        List<Conversation> conversations = SyntheticData.conversations(ME, Math.max(1, rows / 20), 7L);
+        firstPage = new ArrayList<>(conversations.subList(0, Math.min(MessageService.INBOX_PAGE_SIZE, conversations.size())));
+        List<Message> thread = SyntheticData.thread(PRODUCT_ID, ME, OTHER, rows);
+        long unread = conversations.stream().mapToLong(c -> c.unreadOf(ME)).sum();
+
+        Map<Long, Product> products = new HashMap<>();
+        Product product = new Product();
+        product.setId(PRODUCT_ID);
+        product.setUserId(ME);
+        product.setTitle("二手商品 " + PRODUCT_ID);
+        products.put(PRODUCT_ID, product);
+        Map<Long, User> users = new HashMap<>();
+        users.put(ME, SyntheticData.user(ME));
+        users.put(OTHER, SyntheticData.user(OTHER));
+        for (Conversation c : conversations) {
+            users.computeIfAbsent(c.otherUserId(ME), SyntheticData::user);
+        }
+
+        Map<String, Function<Object[], Object>> messageHandlers = new HashMap<>();
+        messageHandlers.put("countByUserIdAndReadFlagFalse", args -> unread);
+        messageHandlers.put("findThreadAfter", args -> {
+            // 消息ID为 1..rows 且按ID升序，sinceId 之后的消息就是从下标 sinceId 开始的子列表
+            int from = (int) Math.min((Long) args[3], thread.size());
+            int to = Math.min(from + ((Pageable) args[4]).getPageSize(), thread.size());
+            return new ArrayList<>(thread.subList(from, to));
+        });
+        messageHandlers.put("existsByUserIdAndReadFlagFalseAndProductIdAndSenderId", args -> false);
+        MessageRepository messageRepository = InMemoryRepositories.proxy(MessageRepository.class, messageHandlers);
+        ConversationRepository conversationRepository = InMemoryRepositories.proxy(ConversationRepository.class,
+                Map.of("findInbox", args -> new ArrayList<>(
+                        conversations.subList(0, Math.min((Integer) args[1], conversations.size())))));
+
+        ProductRepository productRepository = InMemoryRepositories.proxy(ProductRepository.class,
+                Map.of("findById", args -> Optional.ofNullable(products.get((Long) args[0]))));
+        UserRepository userRepository = InMemoryRepositories.proxy(UserRepository.class, Map.of(
+                "findById", args -> Optional.ofNullable(users.get((Long) args[0])),
+                "findAllById", args -> findAll(users, args[0])));
+
+        UnreadPushService unreadPushService = new UnreadPushService();
+        MessageService messageService = new MessageService(messageRepository, conversationRepository,
+                unreadPushService, new UnreadCounterStore(), new NoOpTransactionManager());
+        ProductService productService = new ProductService(productRepository,
+                new ProductSearchIndex(productRepository), new HomeRecommendEngine(productRepository));
+        UserService userService = new UserService(userRepository);
+        // 基准中加载器不在请求作用域内，缓存会跨调用保留；仓库本身也是内存实现，影响只是少量 Map 查找
+        EntityBatchLoader entityBatchLoader = new EntityBatchLoader(productRepository, userRepository);
+        controller = new MessageController(messageService, productService, userService, unreadPushService,
+                entityBatchLoader, new ChatPushService(new ObjectMapper()));
+
+        session = new MockHttpSession();
+        session.setAttribute("userId", ME);
+        session.setAttribute("username", "user" + ME);
+    }
+
+    @Benchmark
+    public List<?> buildThreads() {
+        return controller.buildThreads(firstPage, ME);
+    }
+
+    @Benchmark
+    public Map<String, Object> messagesApi() {
+        // 不带 If-None-Match，每次都走完整的查询和 JSON 构造
+        ServletWebRequest webRequest = new ServletWebRequest(new MockHttpServletRequest(), new MockHttpServletResponse());
+        return controller.messagesApi(session, webRequest, null, 0).getBody();
+    }
+
+    @Benchmark
+    public Object threadApiDelta() {
+        return controller.threadApi(PRODUCT_ID, OTHER, (long) rows - 1, null, session).getBody();
+    }
+
+    @Benchmark
+    public Object threadApiIdle() {
+        return controller.threadApi(PRODUCT_ID, OTHER, (long) rows, null, session);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> findAll(Map<Long, T> source, Object ids) {
+        List<T> result = new ArrayList<>();
+        for (Long id : (Iterable<Long>) ids) {
+            T value = source.get(id);
+            if (value != null) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 基准只调用页面接口，不会触发会话回填，事务管理器只需能构造 TransactionTemplate
+     */
+    private static final class NoOpTransactionManager extends AbstractPlatformTransactionManager {
+
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.xianyu.controller;
+
+import com.example.xianyu.service.HotImageCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.resource.ResourceHttpRequestHandler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * /uploads/** 访问基准：原来的 ResourceHttpRequestHandler（file: 目录映射）对比 UploadController
+ * - 使用 Mock 请求 / 响应，响应体写入内存，只测量应用层的开销（路径解析、条件请求、读文件）；
+ *   sendfile 由 Tomcat 在请求结束后执行，不在测量范围内
+ * - resourceHandlerFull / uploadFull：完整下载一个 size 字节的图片（uploadFull 不启用图片缓存，每次读文件）
+ * - uploadCachedFull：同一张图片已在 HotImageCache 中，从堆外缓冲区写出
+ * - resourceHandlerRevalidate：原处理器没有缓存头，浏览器每次带 If-Modified-Since 重新验证（304）
+ * - uploadRevalidate：旧文件带 If-None-Match 重新验证（304，ETag 已缓存）；按内容寻址的文件在浏览器缓存期内不会发请求
+ * - uploadRange：请求前 64KB（Range）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class UploadControllerBenchmark {
+
+    private static final String LEGACY_PATH = "products/5f0c2a9e-legacy.jpg";
+
+    @Param({"16384", "262144", "4194304"})
+    int size;
+
+    private Path root;
+    private String casPath;
+    private String legacyEtag;
+    private long lastModified;
+    private MockServletContext servletContext;
+    private ResourceHttpRequestHandler resourceHandler;
+    private UploadController controller;
+    private UploadController cachedController;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        root = Files.createTempDirectory("uploads-bench");
+        byte[] content = new byte[size];
+        new Random(7L).nextBytes(content);
+        String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        casPath = "cas/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash + ".jpg";
+        for (String relative : List.of(LEGACY_PATH, casPath)) {
+            Path file = root.resolve(relative);
+            Files.createDirectories(file.getParent());
+            Files.write(file, content);
+        }
+        lastModified = Files.getLastModifiedTime(root.resolve(LEGACY_PATH)).toMillis();
+
+        servletContext = new MockServletContext();
+        resourceHandler = new ResourceHttpRequestHandler();
+        resourceHandler.setLocations(List.of(new FileSystemResource(root.toString() + "/")));
+        resourceHandler.setServletContext(servletContext);
+        resourceHandler.afterPropertiesSet();
+
+        // 基准只调用 serve，不需要孤儿文件回收
+        controller = new UploadController(root.toString(), new HotImageCache(0, 0), null);
+        cachedController = new UploadController(root.toString(), new HotImageCache(64L << 20, 8L << 20), null);
+        cachedController.serve(request(casPath), new MockHttpServletResponse());
+        MockHttpServletResponse warmup = new MockHttpServletResponse();
+        controller.serve(request(LEGACY_PATH), warmup);
+        legacyEtag = warmup.getHeader("ETag");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public MockHttpServletResponse resourceHandlerFull() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        resourceHandler.handleRequest(resourceRequest(LEGACY_PATH), response);
+        return response;
+    }
+
+    @Benchmark
+    public MockHttpServletResponse resourceHandlerRevalidate() throws Exception {
+        MockHttpServletRequest request = resourceRequest(LEGACY_PATH);
+        request.addHeader("If-Modified-Since", lastModified);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        resourceHandler.handleRequest(request, response);
+        return response;
+    }
+
+    @Benchmark
+    public MockHttpServletResponse uploadFull() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.serve(request(casPath), response);
+        return response;
+    }
+
+    @Benchmark
+    public MockHttpServletResponse uploadCachedFull() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        cachedController.serve(request(casPath), response);
+        return response;
+    }
+
+    @Benchmark
+    public MockHttpServletResponse uploadRevalidate() throws IOException {
+        MockHttpServletRequest request = request(LEGACY_PATH);
+        request.addHeader("If-None-Match", legacyEtag);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.serve(request, response);
+        return response;
+    }
+
+    @Benchmark
+    public MockHttpServletResponse uploadRange() throws IOException {
+        MockHttpServletRequest request = request(casPath);
+        request.addHeader("Range", "bytes=0-65535");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.serve(request, response);
+        return response;
+    }
+
+    private MockHttpServletRequest request(String relative) {
+        return new MockHttpServletRequest(servletContext, "GET", UploadController.PREFIX + relative);
+    }
+
+    private MockHttpServletRequest resourceRequest(String relative) {
+        MockHttpServletRequest request = request(relative);
+        request.setAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE, relative);
+        return request;
+    }
+}
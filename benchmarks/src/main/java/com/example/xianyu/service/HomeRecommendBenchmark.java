@@ -0,0 +1,131 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.bench.InMemoryRepositories;
+import com.example.xianyu.bench.SyntheticData;
+import com.example.xianyu.entity.Product;
+import com.example.xianyu.repository.ProductRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 首页推荐热点路径基准
+ * - scoreAll / legacyScoreAll：对全部候选计算一次推荐分（新旧评分函数）
+ * - listHomeRecommend / legacyListHomeRecommend：一次首页推荐请求（引擎 vs 原全量排序实现）
+ * - onProductChanged：一次商品变更事件的增量维护
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class HomeRecommendBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    int rows;
+
+    private List<Product> products;
+    private HomeRecommendEngine engine;
+    private ProductService productService;
+    private double minPrice;
+    private double priceRange;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        products = SyntheticData.products(rows, 42L);
+        Map<Long, Product> byId = new HashMap<>();
+        for (Product p : products) {
+            byId.put(p.getId(), p);
+        }
+        Map<String, Function<Object[], Object>> handlers = new HashMap<>();
+        handlers.put("findByStatusAndImageUrlIsNotNull", args -> products);
+        handlers.put("findByStatus", args -> products);
+        handlers.put("findById", args -> Optional.ofNullable(byId.get((Long) args[0])));
+        handlers.put("findAllById", args -> {
+            List<Product> found = new ArrayList<>();
+            for (Object id : (Iterable<?>) args[0]) {
+                Product p = byId.get((Long) id);
+                if (p != null) {
+                    found.add(p);
+                }
+            }
+            return found;
+        });
+        ProductRepository repository = InMemoryRepositories.proxy(ProductRepository.class, handlers);
+
+        engine = new HomeRecommendEngine(repository);
+        engine.load();
+        productService = new ProductService(repository, new ProductSearchIndex(repository), engine);
+
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (Product p : products) {
+            min = Math.min(min, p.getPrice().doubleValue());
+            max = Math.max(max, p.getPrice().doubleValue());
+        }
+        minPrice = min;
+        priceRange = max - min;
+    }
+
+    @Benchmark
+    public double scoreAll() {
+        long now = System.currentTimeMillis();
+        double sum = 0;
+        for (Product p : products) {
+            long created = p.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            sum += HomeRecommendEngine.timeScore(created, now) * 0.5
+                    + HomeRecommendEngine.staticScore(p.getPrice().doubleValue(), minPrice, priceRange,
+                    HomeRecommendEngine.descScore(p.getDescription()),
+                    HomeRecommendEngine.imageScore(p.getImageUrl()));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double legacyScoreAll() {
+        long now = System.currentTimeMillis();
+        double sum = 0;
+        for (Product p : products) {
+            sum += LegacyHomeRecommend.calculateRecommendScore(p, now, minPrice, priceRange);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public List<Product> listHomeRecommend() {
+        return productService.listHomeRecommend();
+    }
+
+    @Benchmark
+    public List<Product> legacyListHomeRecommend() {
+        return LegacyHomeRecommend.listHomeRecommend(products);
+    }
+
+    @Benchmark
+    public List<Long> onProductChanged() {
+        Product p = products.get(next);
+        next = (next + 1) % rows;
+        engine.onProductChanged(p);
+        return engine.recommend();
+    }
+}
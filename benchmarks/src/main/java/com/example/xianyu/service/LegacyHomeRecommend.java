@@ -0,0 +1,87 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.entity.Product;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 引入 HomeRecommendEngine 之前的首页推荐实现（原样保留），作为基准对照组
+ */
+final class LegacyHomeRecommend {
+
+    private LegacyHomeRecommend() {
+    }
+
+    static List<Product> listHomeRecommend(List<Product> all) {
+        List<Product> candidates = all.stream()
+                .filter(p -> {
+                    String imageUrl = p.getImageUrl();
+                    if (imageUrl == null || imageUrl.trim().isEmpty()) {
+                        return false;
+                    }
+                    String trimmed = imageUrl.trim();
+                    boolean hasValidPath = trimmed.contains("/uploads/");
+                    boolean hasImageExtension = trimmed.matches(".*\\.(jpg|jpeg|png|gif|webp)(,.*)?");
+                    return hasValidPath || hasImageExtension;
+                })
+                .collect(Collectors.toList());
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+        long currentTime = System.currentTimeMillis();
+        double maxPrice = candidates.stream()
+                .mapToDouble(p -> p.getPrice() != null ? p.getPrice().doubleValue() : 0)
+                .max()
+                .orElse(10000);
+        double minPrice = candidates.stream()
+                .mapToDouble(p -> p.getPrice() != null ? p.getPrice().doubleValue() : 0)
+                .min()
+                .orElse(0);
+        double priceRange = maxPrice - minPrice;
+        return candidates.stream()
+                .sorted((p1, p2) -> {
+                    double score1 = calculateRecommendScore(p1, currentTime, minPrice, priceRange);
+                    double score2 = calculateRecommendScore(p2, currentTime, minPrice, priceRange);
+                    return Double.compare(score2, score1);
+                })
+                .limit(8)
+                .collect(Collectors.toList());
+    }
+
+    static double calculateRecommendScore(Product product, long currentTime, double minPrice, double priceRange) {
+        double score = 0.0;
+        if (product.getCreateTime() != null) {
+            long timeDiff = currentTime - product.getCreateTime()
+                    .atZone(java.time.ZoneId.systemDefault())
+                    .toInstant().toEpochMilli();
+            long threeDays = 3L * 24 * 60 * 60 * 1000;
+            double timeScore = Math.max(0, Math.exp(-(double) timeDiff / (threeDays * 2)));
+            score += timeScore * 0.5;
+        }
+        if (product.getPrice() != null && priceRange > 0) {
+            double price = product.getPrice().doubleValue();
+            double priceRatio = (price - minPrice) / priceRange;
+            double priceScore = 1.0 - Math.abs(priceRatio - 0.4) * 2;
+            priceScore = Math.max(0, Math.min(1, priceScore));
+            score += priceScore * 0.2;
+        }
+        if (product.getDescription() != null && !product.getDescription().trim().isEmpty()) {
+            int descLength = product.getDescription().length();
+            double descScore = 1.0;
+            if (descLength < 50) {
+                descScore = descLength / 50.0;
+            } else if (descLength > 200) {
+                descScore = Math.max(0.8, 1.0 - (descLength - 200) / 500.0);
+            }
+            score += descScore * 0.15;
+        }
+        if (product.getImageUrl() != null && !product.getImageUrl().isEmpty()) {
+            int imageCount = product.getImageUrl().split(",").length;
+            double imageScore = Math.min(1.0, imageCount / 3.0);
+            score += imageScore * 0.1;
+        }
+        score += Math.random() * 0.05;
+        return score;
+    }
+}
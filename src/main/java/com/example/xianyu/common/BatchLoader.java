@@ -0,0 +1,89 @@
+package com.example.xianyu.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 按ID批量加载实体（DataLoader 风格）
+ * 先用 {@link #prime} 登记需要的ID，第一次 {@link #get} 时把所有待加载的ID合并为一次查询；
+ * 已加载（包括不存在）的ID会被缓存，同一个加载器内不会重复查询。非线程安全，应在单个请求内使用
+ */
+public class BatchLoader<T> {
+
+    private final Function<Collection<Long>, ? extends Iterable<T>> fetcher;
+    private final Function<T, Long> idOf;
+
+    private final Map<Long, T> loaded = new HashMap<>();
+    private final Set<Long> missing = new HashSet<>();
+    private final Set<Long> pending = new LinkedHashSet<>();
+
+    public BatchLoader(Function<Collection<Long>, ? extends Iterable<T>> fetcher, Function<T, Long> idOf) {
+        this.fetcher = fetcher;
+        this.idOf = idOf;
+    }
+
+    /**
+     * 登记一个稍后需要的ID
+     */
+    public void prime(Long id) {
+        if (id != null && !loaded.containsKey(id) && !missing.contains(id)) {
+            pending.add(id);
+        }
+    }
+
+    /**
+     * 取出实体；如有待加载的ID，先合并查询一次
+     */
+    public Optional<T> get(Long id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        prime(id);
+        dispatch();
+        return Optional.ofNullable(loaded.get(id));
+    }
+
+    /**
+     * 批量取出实体，返回 ID -> 实体（保持传入顺序，不存在的ID不出现在结果中）
+     */
+    public Map<Long, T> getAll(Collection<Long> ids) {
+        ids.forEach(this::prime);
+        dispatch();
+        Map<Long, T> result = new LinkedHashMap<>();
+        for (Long id : ids) {
+            T value = id != null ? loaded.get(id) : null;
+            if (value != null) {
+                result.put(id, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 把所有待加载的ID合并为一次查询
+     */
+    public void dispatch() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(pending);
+        pending.clear();
+        for (T entity : fetcher.apply(ids)) {
+            loaded.put(idOf.apply(entity), entity);
+        }
+        for (Long id : ids) {
+            if (!loaded.containsKey(id)) {
+                missing.add(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.xianyu.common;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 游标分页结果
+ */
+@Getter
+public class CursorPage<T> {
+
+    /**
+     * 当前页数据
+     */
+    private final List<T> items;
+
+    /**
+     * 下一页游标，没有更多数据时为 null
+     */
+    private final String nextCursor;
+
+    public CursorPage(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public boolean isHasMore() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.xianyu.common;
+
+/**
+ * long 的哈希集合（开放寻址，线性探测），元素不装箱，每个元素占 16～32 字节；只支持 add / contains。非线程安全
+ */
+public class LongHashSet {
+
+    /**
+     * 空槽位标记；0 本身单独记录
+     */
+    private static final long EMPTY = 0L;
+
+    private long[] slots;
+    private boolean containsZero;
+    private int size;
+
+    public LongHashSet(int expectedSize) {
+        this.slots = new long[Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1];
+    }
+
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        if ((size + 1) * 2 > slots.length) {
+            resize();
+        }
+        int slot = slot(slots, value);
+        if (slots[slot] == value) {
+            return false;
+        }
+        slots[slot] = value;
+        size++;
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsZero;
+        }
+        return slots[slot(slots, value)] == value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 元素所在的槽位，不存在时为应插入的空槽位
+     */
+    private static int slot(long[] slots, long value) {
+        int mask = slots.length - 1;
+        int i = Long.hashCode(value * 0x9E3779B97F4A7C15L) & mask;
+        while (slots[i] != EMPTY && slots[i] != value) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void resize() {
+        long[] old = slots;
+        slots = new long[old.length << 1];
+        for (long value : old) {
+            if (value != EMPTY) {
+                slots[slot(slots, value)] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.xianyu.common;
+
+import java.util.Arrays;
+
+/**
+ * long 键的哈希表（开放寻址，线性探测），键不装箱；只支持 put / get，用于一次性建立 ID -> 对象 的索引。非线程安全
+ */
+public class LongObjectMap<V> {
+
+    private long[] keys;
+    private Object[] values;
+    private boolean[] used;
+    private int size;
+
+    public LongObjectMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.used = new boolean[capacity];
+    }
+
+    public void put(long key, V value) {
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+        }
+        int slot = slot(key);
+        if (!used[slot]) {
+            used[slot] = true;
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int slot = slot(key);
+        return used[slot] ? (V) values[slot] : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 键所在的槽位，不存在时为应插入的空槽位
+     */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int i = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+        while (used[i] && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length << 1];
+        values = new Object[oldKeys.length << 1];
+        used = new boolean[oldKeys.length << 1];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = slot(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                size++;
+            }
+        }
+        Arrays.fill(oldValues, null);
+    }
+}
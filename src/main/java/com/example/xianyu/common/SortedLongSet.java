@@ -0,0 +1,64 @@
+package com.example.xianyu.common;
+
+import java.util.Arrays;
+
+/**
+ * 有序 long 集合（基于有序数组 + 二分查找）
+ * 每个元素只占 8 字节，适合保存大量小集合（如每条动态的点赞用户ID）；非线程安全
+ */
+public class SortedLongSet {
+
+    private long[] values;
+    private int size;
+
+    public SortedLongSet() {
+        this.values = new long[4];
+    }
+
+    /**
+     * 用已排序、无重复的数组创建集合（数组直接被集合持有）
+     */
+    public SortedLongSet(long[] sorted) {
+        this.values = sorted.length > 0 ? sorted : new long[4];
+        this.size = sorted.length;
+    }
+
+    public boolean contains(long value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    /**
+     * 加入元素，已存在时返回 false
+     */
+    public boolean add(long value) {
+        int pos = Arrays.binarySearch(values, 0, size, value);
+        if (pos >= 0) {
+            return false;
+        }
+        int insertAt = -pos - 1;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1) + 1);
+        }
+        System.arraycopy(values, insertAt, values, insertAt + 1, size - insertAt);
+        values[insertAt] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * 移除元素，不存在时返回 false
+     */
+    public boolean remove(long value) {
+        int pos = Arrays.binarySearch(values, 0, size, value);
+        if (pos < 0) {
+            return false;
+        }
+        System.arraycopy(values, pos + 1, values, pos, size - pos - 1);
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+}
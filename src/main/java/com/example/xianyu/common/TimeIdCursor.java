@@ -0,0 +1,53 @@
+package com.example.xianyu.common;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * 基于 (createTime, id) 的键集分页游标
+ * 对外编码为 URL 安全的 Base64 字符串，内容为 "createTime|id"
+ */
+public final class TimeIdCursor {
+
+    private final LocalDateTime time;
+    private final Long id;
+
+    public TimeIdCursor(LocalDateTime time, Long id) {
+        this.time = time;
+        this.id = id;
+    }
+
+    public LocalDateTime getTime() {
+        return time;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String encode() {
+        String raw = time + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析游标，为空时返回 null（表示第一页），格式错误时抛出参数错误
+     */
+    public static TimeIdCursor decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.indexOf('|');
+            if (sep < 0) {
+                throw new BizException(ErrorCode.PARAM_ERROR);
+            }
+            return new TimeIdCursor(LocalDateTime.parse(raw.substring(0, sep)), Long.valueOf(raw.substring(sep + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new BizException(ErrorCode.PARAM_ERROR);
+        }
+    }
+}
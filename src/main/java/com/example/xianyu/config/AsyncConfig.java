@@ -0,0 +1,63 @@
+package com.example.xianyu.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class AsyncConfig {
+
+    /**
+     * 鱼塘评论通知线程池
+     * 队列有界：积压满时由提交任务的线程自己执行（CallerRunsPolicy），相当于对评论接口限流，不会丢通知；
+     * 关闭应用时等待队列中的通知写完
+     */
+    @Bean(name = "pondNotificationExecutor")
+    public ThreadPoolTaskExecutor pondNotificationExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(2);
+        executor.setMaxPoolSize(4);
+        executor.setQueueCapacity(1000);
+        executor.setThreadNamePrefix("pond-notify-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    /**
+     * 缩略图线程池
+     * 图片解码、缩放占用 CPU 和内存，线程数固定且较少；队列满时拒绝（缩略图会在页面访问时重新提交），
+     * 关闭应用时不等待，未完成的缩略图下次再生成
+     */
+    @Bean(name = "thumbnailExecutor")
+    public ThreadPoolTaskExecutor thumbnailExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(2);
+        executor.setMaxPoolSize(2);
+        executor.setQueueCapacity(200);
+        executor.setThreadNamePrefix("thumbnail-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+
+    /**
+     * 孤儿上传文件回收线程
+     * 回收会按 files-per-second 限速而长时间休眠，不能占用只有一个线程的默认调度器（点赞写回、心跳等会被卡住）；
+     * 单线程、不排队（同一时刻只有一次回收），关闭应用时中断，下次再回收
+     */
+    @Bean(name = "uploadGcExecutor")
+    public ThreadPoolTaskExecutor uploadGcExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("upload-gc-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.xianyu.config;
+
+import com.example.xianyu.controller.ChatWebSocketHandler;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.support.HttpSessionHandshakeInterceptor;
+
+import java.util.List;
+import java.util.Map;
+
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final ChatWebSocketHandler chatWebSocketHandler;
+
+    public WebSocketConfig(ChatWebSocketHandler chatWebSocketHandler) {
+        this.chatWebSocketHandler = chatWebSocketHandler;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        // 默认只允许同源页面连接
+        registry.addHandler(chatWebSocketHandler, "/ws/chat")
+                .addInterceptors(new LoginHandshakeInterceptor());
+    }
+
+    /**
+     * 握手时把登录信息从 HttpSession 复制到 WebSocket 会话，未登录直接拒绝
+     */
+    static class LoginHandshakeInterceptor extends HttpSessionHandshakeInterceptor {
+
+        LoginHandshakeInterceptor() {
+            super(List.of("userId", "username"));
+        }
+
+        @Override
+        public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                       WebSocketHandler wsHandler, Map<String, Object> attributes) throws Exception {
+            super.beforeHandshake(request, response, wsHandler, attributes);
+            return attributes.get("userId") instanceof Long && attributes.get("username") instanceof String;
+        }
+    }
+}
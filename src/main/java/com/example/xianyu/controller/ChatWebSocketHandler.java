@@ -0,0 +1,132 @@
+package com.example.xianyu.controller;
+
+import com.example.xianyu.entity.Message;
+import com.example.xianyu.entity.Product;
+import com.example.xianyu.service.ChatPushService;
+import com.example.xianyu.service.MessageService;
+import com.example.xianyu.service.ProductService;
+import com.example.xianyu.service.UserService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.util.Map;
+
+/**
+ * 买家-卖家聊天 WebSocket（/ws/chat）
+ * 客户端发送 {"type":"send","productId":1,"with":2,"content":"..."} 发消息，
+ * 发送 {"type":"read","productId":1,"with":2} 把正在查看的会话标记已读；
+ * 服务端推送 {@link ChatPushService.ChatEvent}，出错时推送 {"type":"error","error":"..."}
+ */
+@Component
+public class ChatWebSocketHandler extends TextWebSocketHandler {
+
+    private static final String ATTR_CONCURRENT_SESSION = "chatConcurrentSession";
+
+    private final MessageService messageService;
+    private final ProductService productService;
+    private final UserService userService;
+    private final ChatPushService chatPushService;
+    private final ObjectMapper objectMapper;
+
+    public ChatWebSocketHandler(MessageService messageService,
+                                ProductService productService,
+                                UserService userService,
+                                ChatPushService chatPushService,
+                                ObjectMapper objectMapper) {
+        this.messageService = messageService;
+        this.productService = productService;
+        this.userService = userService;
+        this.chatPushService = chatPushService;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        WebSocketSession concurrent = chatPushService.register(userId(session), session);
+        session.getAttributes().put(ATTR_CONCURRENT_SESSION, concurrent);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Object concurrent = session.getAttributes().get(ATTR_CONCURRENT_SESSION);
+        if (concurrent instanceof WebSocketSession s) {
+            chatPushService.unregister(userId(session), s);
+        }
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage textMessage) {
+        ChatCommand command;
+        try {
+            command = objectMapper.readValue(textMessage.getPayload(), ChatCommand.class);
+        } catch (JsonProcessingException e) {
+            replyError(session, "消息格式错误");
+            return;
+        }
+        Long userId = userId(session);
+        if (command.productId() == null || command.with() == null) {
+            replyError(session, "参数错误");
+            return;
+        }
+        if (command.with().equals(userId)) {
+            replyError(session, "无法与自己会话");
+            return;
+        }
+        try {
+            if ("read".equals(command.type())) {
+                messageService.markThreadRead(command.productId(), userId, command.with());
+            } else if ("send".equals(command.type())) {
+                send(session, userId, command);
+            } else {
+                replyError(session, "不支持的消息类型");
+            }
+        } catch (RuntimeException e) {
+            // 数据库等异常不向上抛出，否则容器会关闭整个连接；只告诉客户端本条指令失败
+            System.err.println("处理聊天指令失败: " + e.getMessage());
+            replyError(session, "read".equals(command.type()) ? "标记已读失败，请稍后重试" : "发送失败，请稍后重试");
+        }
+    }
+
+    private void send(WebSocketSession session, Long userId, ChatCommand command) {
+        if (command.content() == null || command.content().trim().isEmpty()) {
+            replyError(session, "消息内容不能为空");
+            return;
+        }
+        Product product = productService.findById(command.productId()).orElse(null);
+        if (product == null) {
+            replyError(session, "商品不存在");
+            return;
+        }
+        if (userService.findById(command.with()).isEmpty()) {
+            replyError(session, "用户不存在");
+            return;
+        }
+        String username = (String) session.getAttributes().get("username");
+        Message saved = messageService.sendChatMessage(userId, username, command.with(), command.productId(),
+                product.getTitle(), command.content().trim());
+        // sendChatMessage 的事务已提交，推送给双方（包括发送人自己的这个连接）
+        chatPushService.deliver(saved);
+    }
+
+    private void replyError(WebSocketSession session, String error) {
+        Object concurrent = session.getAttributes().get(ATTR_CONCURRENT_SESSION);
+        chatPushService.sendTo(concurrent instanceof WebSocketSession s ? s : session,
+                Map.of("type", "error", "error", error));
+    }
+
+    private static Long userId(WebSocketSession session) {
+        // 握手拦截器保证已登录
+        return (Long) session.getAttributes().get("userId");
+    }
+
+    /**
+     * 客户端发来的指令
+     */
+    record ChatCommand(String type, Long productId, Long with, String content) {
+    }
+}
@@ -1,5 +1,7 @@
 package com.example.xianyu.controller;
 
+import com.example.xianyu.common.CursorPage;
+import com.example.xianyu.repository.ProductCard;
 import com.example.xianyu.service.ProductService;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
@@ -31,8 +33,11 @@ public class HomeController {
         // 首页推荐轮播：从用户已发布的在售商品中选择最新的几件
         model.addAttribute("recommendProducts", productService.listHomeRecommend());
         
-        // 展示所有在售商品（按时间倒序）
-        model.addAttribute("allProducts", productService.listOnSale(null, null));
+        // 在售商品第一页（按时间倒序），后续页通过 /product/api/list 游标接口滚动加载
+        CursorPage<ProductCard> page = productService.pageOnSale(null, null, ProductService.DEFAULT_PAGE_SIZE);
+        model.addAttribute("allProducts", page.getItems());
+        model.addAttribute("nextCursor", page.getNextCursor());
+        model.addAttribute("onSaleCount", productService.countOnSale());
 
         // 兜底方案：从 uploads/products 目录中读取图片，用于当数据库无商品时的轮播展示
         try {
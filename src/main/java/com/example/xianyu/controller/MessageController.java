@@ -1,25 +1,32 @@
 package com.example.xianyu.controller;
 
+import com.example.xianyu.common.CursorPage;
+import com.example.xianyu.entity.Conversation;
 import com.example.xianyu.entity.Product;
 import com.example.xianyu.entity.User;
+import com.example.xianyu.service.ChatPushService;
+import com.example.xianyu.service.EntityBatchLoader;
 import com.example.xianyu.service.MessageService;
-import com.example.xianyu.service.PondService;
 import com.example.xianyu.service.ProductService;
+import com.example.xianyu.service.UnreadCounterStore;
+import com.example.xianyu.service.UnreadPushService;
 import com.example.xianyu.service.UserService;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 
 @Controller
@@ -28,13 +35,19 @@ public class MessageController {
     private final MessageService messageService;
     private final ProductService productService;
     private final UserService userService;
-    private final PondService pondService;
+    private final UnreadPushService unreadPushService;
+    private final EntityBatchLoader entityBatchLoader;
+    private final ChatPushService chatPushService;
 
-    public MessageController(MessageService messageService, ProductService productService, UserService userService, PondService pondService) {
+    public MessageController(MessageService messageService, ProductService productService, UserService userService,
+                             UnreadPushService unreadPushService, EntityBatchLoader entityBatchLoader,
+                             ChatPushService chatPushService) {
         this.messageService = messageService;
         this.productService = productService;
         this.userService = userService;
-        this.pondService = pondService;
+        this.unreadPushService = unreadPushService;
+        this.entityBatchLoader = entityBatchLoader;
+        this.chatPushService = chatPushService;
     }
 
     /**
@@ -46,65 +59,37 @@ public class MessageController {
         if (userId == null) {
             return "redirect:/auth/login";
         }
-        List<com.example.xianyu.entity.Message> all = messageService.listByUser(userId);
+        CursorPage<Conversation> page = messageService.pageInbox(userId, null, MessageService.INBOX_PAGE_SIZE);
         model.addAttribute("unreadCount", messageService.countUnread(userId));
         model.addAttribute("currentUserId", userId);
-        model.addAttribute("threads", buildThreads(all, userId));
+        model.addAttribute("threads", buildThreads(page.getItems(), userId));
+        model.addAttribute("nextCursor", page.getNextCursor());
         return "message/index";
     }
 
     /**
-     * 将消息聚合为线程，避免同一对话多条卡片
+     * 会话摘要转换为页面展示的线程
      */
-    private List<ThreadView> buildThreads(List<com.example.xianyu.entity.Message> list, Long currentUserId) {
-        // 按创建时间降序
-        list.sort((a, b) -> b.getCreateTime().compareTo(a.getCreateTime()));
-        Map<String, ThreadView> map = new LinkedHashMap<>();
-        for (com.example.xianyu.entity.Message m : list) {
-            // 系统消息单独按ID区分
-            if (m.getSenderId() == null) {
-                String key = "system-" + m.getId();
-                map.putIfAbsent(key, ThreadView.fromMessage(m, currentUserId, 0));
-                continue;
-            }
-            Long otherId = Objects.equals(m.getSenderId(), currentUserId) ? m.getUserId() : m.getSenderId();
-            // 鱼塘消息按 postId 分组，商品消息按 productId 分组
-            String key;
-            if (m.getPostId() != null) {
-                key = "pond-" + m.getPostId() + "-" + otherId;
-            } else {
-                key = "product-" + (m.getProductId() != null ? m.getProductId() : 0L) + "-" + otherId;
-            }
-            ThreadView tv = map.get(key);
-            if (tv == null) {
-                tv = ThreadView.fromMessage(m, currentUserId, 0);
-                tv.setOtherUserId(otherId);
-                map.put(key, tv);
-            }
-            // 未读数累加（仅计算当前用户收到的未读）
-            if (m.getUserId().equals(currentUserId) && Boolean.FALSE.equals(m.getReadFlag())) {
-                tv.setUnread(tv.getUnread() + 1);
+    List<ThreadView> buildThreads(List<Conversation> conversations, Long currentUserId) {
+        List<ThreadView> threads = new ArrayList<>(conversations.size());
+        for (Conversation c : conversations) {
+            ThreadView tv = ThreadView.fromConversation(c, currentUserId);
+            // 最后一条是自己发的消息时，摘要里没有对方昵称，先登记后统一批量查询
+            if (tv.getOtherName() == null && tv.getOtherUserId() != null) {
+                entityBatchLoader.users().prime(tv.getOtherUserId());
             }
+            threads.add(tv);
         }
-        // 填充商品标题快照和帖子标题快照
-        map.values().forEach(tv -> {
-            if (tv.getProductId() != null && tv.getProductTitle() == null) {
-                productService.findById(tv.getProductId()).ifPresent(p -> tv.setProductTitle(p.getTitle()));
-            }
-            if (tv.getPostId() != null && tv.getPostTitle() == null) {
-                pondService.getPost(tv.getPostId()).ifPresent(p -> {
-                    String content = p.getContent();
-                    tv.setPostTitle(content != null && content.length() > 30 ? content.substring(0, 30) + "..." : content);
-                });
-            }
+        for (ThreadView tv : threads) {
             if (tv.getOtherName() == null && tv.getOtherUserId() != null) {
-                userService.findById(tv.getOtherUserId()).ifPresent(u -> tv.setOtherName(u.getUsername()));
+                entityBatchLoader.users().get(tv.getOtherUserId()).ifPresent(u -> tv.setOtherName(u.getUsername()));
             }
-        });
-        return new ArrayList<>(map.values());
+        }
+        return threads;
     }
 
-    private static class ThreadView {
+    static class ThreadView {
+        private Long id;
         private Long lastId;
         private Long productId;
         private String productTitle;
@@ -115,25 +100,28 @@ public class MessageController {
         private String lastContent;
         private String lastType;
         private LocalDateTime lastTime;
+        private boolean lastFromMe;
         private int unread;
 
-        static ThreadView fromMessage(com.example.xianyu.entity.Message m, Long currentUserId, int unread) {
+        static ThreadView fromConversation(Conversation c, Long currentUserId) {
             ThreadView tv = new ThreadView();
-            tv.lastId = m.getId();
-            tv.productId = m.getProductId();
-            tv.postId = m.getPostId();
-            tv.productTitle = m.getTitle();
-            tv.postTitle = m.getTitle();
-            tv.lastContent = m.getContent();
-            tv.lastType = m.getType();
-            tv.lastTime = m.getCreateTime();
-            tv.unread = unread;
-            Long otherId = Objects.equals(m.getSenderId(), currentUserId) ? m.getUserId() : m.getSenderId();
-            tv.otherUserId = otherId;
-            tv.otherName = m.getSenderName();
+            tv.id = c.getId();
+            tv.lastId = c.getLastMessageId();
+            tv.productId = Conversation.KIND_PRODUCT.equals(c.getKind()) ? c.getRefId() : null;
+            tv.postId = Conversation.KIND_POND.equals(c.getKind()) ? c.getRefId() : null;
+            tv.productTitle = c.getLastTitle();
+            tv.postTitle = c.getLastTitle();
+            tv.lastContent = c.getLastContent();
+            tv.lastType = c.getLastType();
+            tv.lastTime = c.getLastTime();
+            tv.unread = c.unreadOf(currentUserId);
+            tv.otherUserId = c.otherUserId(currentUserId);
+            tv.lastFromMe = c.getLastSenderId() != null && Objects.equals(c.getLastSenderId(), currentUserId);
+            tv.otherName = tv.lastFromMe ? null : c.getLastSenderName();
             return tv;
         }
 
+        public Long getId() { return id; }
         public Long getLastId() { return lastId; }
         public Long getProductId() { return productId; }
         public String getProductTitle() { return productTitle; }
@@ -144,13 +132,10 @@ public class MessageController {
         public String getLastContent() { return lastContent; }
         public String getLastType() { return lastType; }
         public LocalDateTime getLastTime() { return lastTime; }
+        public boolean isLastFromMe() { return lastFromMe; }
         public int getUnread() { return unread; }
 
-        public void setProductTitle(String productTitle) { this.productTitle = productTitle; }
-        public void setPostTitle(String postTitle) { this.postTitle = postTitle; }
-        public void setOtherUserId(Long otherUserId) { this.otherUserId = otherUserId; }
         public void setOtherName(String otherName) { this.otherName = otherName; }
-        public void setUnread(int unread) { this.unread = unread; }
     }
 
     /**
@@ -215,8 +200,10 @@ public class MessageController {
             redirectAttributes.addFlashAttribute("error", "消息内容不能为空");
             return "redirect:/product/detail?id=" + productId;
         }
-        messageService.sendChatMessage(userId, username, product.getUserId(),
+        com.example.xianyu.entity.Message saved = messageService.sendChatMessage(userId, username, product.getUserId(),
                 product.getId(), product.getTitle(), content.trim());
+        // 卖家正在这个会话页时立即推送，和会话内发送一致
+        chatPushService.deliver(saved);
         return "redirect:/messages";
     }
 
@@ -249,7 +236,11 @@ public class MessageController {
         }
         // 标记我收到的未读为已读
         messageService.markThreadRead(productId, userId, otherUserId);
-        model.addAttribute("messages", messageService.listThread(productId, userId, otherUserId));
+        // 首屏只渲染最新一页，更早的消息通过 beforeId 向前翻页
+        CursorPage<com.example.xianyu.entity.Message> page = messageService.pageThreadBefore(
+                productId, userId, otherUserId, null, MessageService.THREAD_PAGE_SIZE);
+        model.addAttribute("messages", page.getItems());
+        model.addAttribute("olderCursor", page.getNextCursor());
         model.addAttribute("product", product);
         model.addAttribute("otherUser", other);
         model.addAttribute("currentUserId", userId);
@@ -306,7 +297,10 @@ public class MessageController {
             redirectAttributes.addFlashAttribute("error", "消息内容不能为空");
             return "redirect:/messages/thread?productId=" + productId + "&with=" + otherUserId;
         }
-        messageService.sendChatMessage(userId, username, otherUserId, productId, product.getTitle(), content.trim());
+        com.example.xianyu.entity.Message saved = messageService.sendChatMessage(userId, username, otherUserId,
+                productId, product.getTitle(), content.trim());
+        // 对方在线时立即推送（WebSocket 不可用时页面会退回到这个接口）
+        chatPushService.deliver(saved);
         if (isAjax) {
             return ResponseEntity.ok().body(java.util.Map.of("success", true));
         }
@@ -319,62 +313,103 @@ public class MessageController {
     }
 
     /**
-     * 获取对话消息（JSON API，用于轮询刷新）
+     * 获取对话消息（JSON API）
+     * - 轮询：传 sinceId，只返回比它新的消息（每次最多 THREAD_DELTA_LIMIT 条，hasMore 时客户端立即再拉一次），没有新消息时返回 204
+     * - 翻历史：传 beforeId，返回比它早的一页，hasMore 表示还有更早的消息
+     * - 都不传：返回最新一页
      */
     @GetMapping("/messages/thread/api")
     @ResponseBody
-    public java.util.Map<String, Object> threadApi(@RequestParam Long productId,
-                                                    @RequestParam("with") Long otherUserId,
-                                                    HttpSession session) {
-        java.util.Map<String, Object> result = new java.util.HashMap<>();
+    public ResponseEntity<?> threadApi(@RequestParam Long productId,
+                                       @RequestParam("with") Long otherUserId,
+                                       @RequestParam(required = false) Long sinceId,
+                                       @RequestParam(required = false) Long beforeId,
+                                       HttpSession session) {
         Long userId = (Long) session.getAttribute("userId");
         if (userId == null) {
-            result.put("error", "未登录");
-            return result;
+            return ResponseEntity.ok(java.util.Map.of("error", "未登录"));
         }
         if (otherUserId.equals(userId)) {
-            result.put("error", "无法与自己会话");
-            return result;
+            return ResponseEntity.ok(java.util.Map.of("error", "无法与自己会话"));
         }
-        // 标记我收到的未读为已读
-        messageService.markThreadRead(productId, userId, otherUserId);
-        java.util.List<com.example.xianyu.entity.Message> messages = messageService.listThread(productId, userId, otherUserId);
-        // 转换为简单格式
-        java.util.List<java.util.Map<String, Object>> msgList = new java.util.ArrayList<>();
+        if (sinceId != null) {
+            List<com.example.xianyu.entity.Message> delta = messageService.listThreadAfter(
+                    productId, userId, otherUserId, sinceId, MessageService.THREAD_DELTA_LIMIT + 1);
+            if (delta.isEmpty()) {
+                return ResponseEntity.noContent().build();
+            }
+            boolean hasMore = delta.size() > MessageService.THREAD_DELTA_LIMIT;
+            if (hasMore) {
+                delta = delta.subList(0, MessageService.THREAD_DELTA_LIMIT);
+            }
+            // 只有收到对方的新消息时才需要标记已读
+            if (delta.stream().anyMatch(m -> otherUserId.equals(m.getSenderId()))) {
+                messageService.markThreadRead(productId, userId, otherUserId);
+            }
+            return ResponseEntity.ok(new ThreadMessages(toViews(delta), userId, hasMore));
+        }
+        CursorPage<com.example.xianyu.entity.Message> page = messageService.pageThreadBefore(
+                productId, userId, otherUserId, beforeId, MessageService.THREAD_PAGE_SIZE);
+        if (beforeId == null) {
+            messageService.markThreadRead(productId, userId, otherUserId);
+        }
+        return ResponseEntity.ok(new ThreadMessages(toViews(page.getItems()), userId, page.isHasMore()));
+    }
+
+    private static List<ChatMessageView> toViews(List<com.example.xianyu.entity.Message> messages) {
+        List<ChatMessageView> views = new ArrayList<>(messages.size());
         for (com.example.xianyu.entity.Message m : messages) {
-            java.util.Map<String, Object> msg = new java.util.HashMap<>();
-            msg.put("id", m.getId());
-            msg.put("senderId", m.getSenderId());
-            msg.put("senderName", m.getSenderName() != null ? m.getSenderName() : "系统");
-            msg.put("content", m.getContent());
-            msg.put("createTime", m.getCreateTime());
-            msgList.add(msg);
-        }
-        result.put("messages", msgList);
-        result.put("currentUserId", userId);
-        return result;
+            views.add(ChatMessageView.of(m));
+        }
+        return views;
+    }
+
+    /**
+     * 聊天消息（JSON）
+     */
+    record ChatMessageView(Long id, Long senderId, String senderName, String content, LocalDateTime createTime) {
+
+        static ChatMessageView of(com.example.xianyu.entity.Message m) {
+            return new ChatMessageView(m.getId(), m.getSenderId(),
+                    m.getSenderName() != null ? m.getSenderName() : "系统", m.getContent(), m.getCreateTime());
+        }
+    }
+
+    /**
+     * 聊天消息列表（JSON）
+     */
+    record ThreadMessages(List<ChatMessageView> messages, Long currentUserId, boolean hasMore) {
     }
 
     /**
-     * 获取消息中心数据（JSON API，用于轮询刷新）
+     * 获取消息中心数据（JSON API，用于轮询刷新；不带 cursor 时返回第一页，带 cursor 时返回后续页）
      */
     @GetMapping("/messages/api")
     @ResponseBody
-    public java.util.Map<String, Object> messagesApi(HttpSession session) {
+    public ResponseEntity<java.util.Map<String, Object>> messagesApi(HttpSession session, WebRequest webRequest,
+                                                                     @RequestParam(required = false) String cursor,
+                                                                     @RequestParam(defaultValue = "0") int size) {
         java.util.Map<String, Object> result = new java.util.HashMap<>();
         Long userId = (Long) session.getAttribute("userId");
         if (userId == null) {
             result.put("error", "未登录");
-            return result;
+            return ResponseEntity.ok(result);
         }
-        List<com.example.xianyu.entity.Message> all = messageService.listByUser(userId);
-        long unreadCount = messageService.countUnread(userId);
-        List<ThreadView> threads = buildThreads(all, userId);
-        
+        // 收到或发出新消息、标记已读、删除会话都会改变该用户的版本号
+        UnreadCounterStore.Snapshot snapshot = messageService.unreadSnapshot(userId);
+        String etag = unreadEtag("m", userId, snapshot);
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
+        CursorPage<Conversation> page = messageService.pageInbox(userId, cursor, size);
+        long unreadCount = snapshot.count();
+        List<ThreadView> threads = buildThreads(page.getItems(), userId);
+
         // 转换为JSON格式
         java.util.List<java.util.Map<String, Object>> threadList = new java.util.ArrayList<>();
         for (ThreadView tv : threads) {
             java.util.Map<String, Object> thread = new java.util.HashMap<>();
+            thread.put("id", tv.getId());
             thread.put("lastId", tv.getLastId());
             thread.put("productId", tv.getProductId());
             thread.put("productTitle", tv.getProductTitle());
@@ -385,14 +420,17 @@ public class MessageController {
             thread.put("lastContent", tv.getLastContent());
             thread.put("lastType", tv.getLastType());
             thread.put("lastTime", tv.getLastTime());
+            thread.put("lastFromMe", tv.isLastFromMe());
             thread.put("unread", tv.getUnread());
             threadList.add(thread);
         }
         
         result.put("unreadCount", unreadCount);
         result.put("threads", threadList);
+        result.put("nextCursor", page.getNextCursor());
+        result.put("hasMore", page.isHasMore());
         result.put("currentUserId", userId);
-        return result;
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache()).eTag(etag).body(result);
     }
 
     /**
@@ -400,16 +438,44 @@ public class MessageController {
      */
     @GetMapping("/messages/unread-count")
     @ResponseBody
-    public java.util.Map<String, Object> unreadCountApi(HttpSession session) {
+    public ResponseEntity<java.util.Map<String, Object>> unreadCountApi(HttpSession session, WebRequest webRequest) {
         java.util.Map<String, Object> result = new java.util.HashMap<>();
         Long userId = (Long) session.getAttribute("userId");
         if (userId == null) {
             result.put("unreadCount", 0);
-            return result;
+            return ResponseEntity.ok(result);
         }
-        long unreadCount = messageService.countUnread(userId);
-        result.put("unreadCount", unreadCount);
-        return result;
+        UnreadCounterStore.Snapshot snapshot = messageService.unreadSnapshot(userId);
+        String etag = unreadEtag("u", userId, snapshot);
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
+        result.put("unreadCount", snapshot.count());
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache()).eTag(etag).body(result);
+    }
+
+    /**
+     * ETag 中带上用户ID，避免同一浏览器切换账号后命中另一个用户的缓存
+     */
+    private static String unreadEtag(String prefix, Long userId, UnreadCounterStore.Snapshot snapshot) {
+        return "\"" + prefix + userId + "-" + Long.toHexString(snapshot.version()) + "\"";
+    }
+
+    /**
+     * 未读消息数推送（SSE），未读数变化时由服务端主动推送；未登录时返回 204，浏览器不会重连
+     */
+    @GetMapping(value = "/messages/unread-stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public ResponseEntity<SseEmitter> unreadStream(HttpSession session) {
+        Long userId = (Long) session.getAttribute("userId");
+        if (userId == null) {
+            return ResponseEntity.noContent().build();
+        }
+        SseEmitter emitter = unreadPushService.subscribe(userId, session.getId(), messageService.countUnread(userId));
+        return ResponseEntity.ok()
+                .header("Cache-Control", "no-cache")
+                .header("X-Accel-Buffering", "no")
+                .body(emitter);
     }
 
     /**
@@ -2,6 +2,7 @@ package com.example.xianyu.controller;
 
 import com.example.xianyu.entity.OrderInfo;
 import com.example.xianyu.entity.Product;
+import com.example.xianyu.service.EntityBatchLoader;
 import com.example.xianyu.service.OrderService;
 import com.example.xianyu.service.ProductService;
 import jakarta.servlet.http.HttpSession;
@@ -21,10 +22,13 @@ public class OrderController {
 
     private final OrderService orderService;
     private final ProductService productService;
+    private final EntityBatchLoader entityBatchLoader;
 
-    public OrderController(OrderService orderService, ProductService productService) {
+    public OrderController(OrderService orderService, ProductService productService,
+                           EntityBatchLoader entityBatchLoader) {
         this.orderService = orderService;
         this.productService = productService;
+        this.entityBatchLoader = entityBatchLoader;
     }
 
 
@@ -280,12 +284,9 @@ public class OrderController {
             return "redirect:/auth/login";
         }
         List<OrderInfo> orders = orderService.listByBuyer(buyerId);
-        // 为每个订单加载商品信息
-        java.util.Map<Long, Product> productMap = new java.util.HashMap<>();
-        for (OrderInfo order : orders) {
-            productService.findById(order.getProductId()).ifPresent(product -> 
-                productMap.put(order.getProductId(), product));
-        }
+        // 一次查询加载所有订单的商品信息
+        java.util.Map<Long, Product> productMap = entityBatchLoader.products()
+                .getAll(orders.stream().map(OrderInfo::getProductId).toList());
         model.addAttribute("orders", orders);
         model.addAttribute("productMap", productMap);
         return "order/list";
@@ -3,10 +3,10 @@ package com.example.xianyu.controller;
 import com.example.xianyu.entity.Product;
 import com.example.xianyu.entity.User;
 import com.example.xianyu.service.ProductService;
+import com.example.xianyu.service.UploadStorageService;
 import com.example.xianyu.service.UserService;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.stereotype.Controller;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -14,24 +14,20 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.List;
 import java.util.Optional;
-import java.util.UUID;
 
 
 @Controller
 public class PageController {
     private final UserService userService;
     private final ProductService productService;
-    @Value("${upload.dir:uploads}")
-    private String uploadDir;
+    private final UploadStorageService uploadStorageService;
 
-    public PageController(UserService userService, ProductService productService) {
+    public PageController(UserService userService, ProductService productService, UploadStorageService uploadStorageService) {
         this.userService = userService;
         this.productService = productService;
+        this.uploadStorageService = uploadStorageService;
     }
 
 
@@ -108,19 +104,8 @@ public class PageController {
                      return profile(session, model);
           }
           try {
-              // 创建上传目录
-              Path uploadPath = Paths.get(uploadDir).toAbsolutePath();
-              if (!Files.exists(uploadPath)) {
-                  Files.createDirectories(uploadPath);
-              }
-              // 生成唯一文件名
-              String fileExtension = originalFilename.substring(originalFilename.lastIndexOf("."));
-              String newFilename = UUID.randomUUID().toString() + fileExtension;
-              Path filePath = uploadPath.resolve(newFilename);
-              // 保存文件
-              file.transferTo(filePath.toFile());
-              // 保存文件路径到数据库（相对路径，用于前端访问）
-              String avatarPath = "/uploads/" + newFilename;
+              // 按内容去重保存；旧头像不释放，动态、评论中还保存着发布时的头像地址
+              String avatarPath = uploadStorageService.store(file);
               userService.updateAvatar(userId, avatarPath);
               // 更新session中的用户信息
               Optional<User> userOpt = userService.findById(userId);
@@ -1,24 +1,30 @@
 package com.example.xianyu.controller;
 
+import com.example.xianyu.common.CursorPage;
 import com.example.xianyu.entity.PondComment;
 import com.example.xianyu.entity.PondPost;
+import com.example.xianyu.service.CommentNode;
 import com.example.xianyu.service.MessageService;
+import com.example.xianyu.service.PondCommentVersions;
+import com.example.xianyu.service.PondFilterIndex;
+import com.example.xianyu.service.PondCommentTreeService;
+import com.example.xianyu.service.PondLikeService;
 import com.example.xianyu.service.PondService;
+import com.example.xianyu.service.UploadStorageService;
 import jakarta.servlet.http.HttpSession;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
-import java.util.UUID;
-import java.util.stream.Collectors;
 
 @Controller
 @RequestMapping("/pond")
@@ -26,32 +32,59 @@ public class PondController {
 
     private final PondService pondService;
     private final MessageService messageService;
+    private final PondLikeService pondLikeService;
+    private final PondCommentTreeService commentTreeService;
+    private final PondCommentVersions commentVersions;
+    private final UploadStorageService uploadStorageService;
 
-    @Value("${upload.dir:uploads}")
-    private String uploadDir;
-
-    public PondController(PondService pondService, MessageService messageService) {
+    public PondController(PondService pondService, MessageService messageService, PondLikeService pondLikeService,
+                          PondCommentTreeService commentTreeService, PondCommentVersions commentVersions,
+                          UploadStorageService uploadStorageService) {
         this.pondService = pondService;
         this.messageService = messageService;
+        this.pondLikeService = pondLikeService;
+        this.commentTreeService = commentTreeService;
+        this.commentVersions = commentVersions;
+        this.uploadStorageService = uploadStorageService;
     }
 
     /**
      * 鱼塘首页 - 动态列表
      */
     @GetMapping
-    public String index(@RequestParam(required = false) String category,
-                       @RequestParam(required = false) String city,
+    public String index(@RequestParam(required = false) List<String> category,
+                       @RequestParam(required = false) List<String> city,
+                       @RequestParam(required = false) String sort,
+                       @RequestParam(required = false) String cursor,
                        Model model,
                        HttpSession session) {
-        List<PondPost> posts = pondService.listPosts(category, city);
-        model.addAttribute("posts", posts);
+        String sortKey = PondService.SORT_HOT.equals(sort) ? PondService.SORT_HOT : null;
+        CursorPage<PondPost> page = pondService.pagePosts(category, city, sortKey, cursor, PondService.FEED_PAGE_SIZE);
+        model.addAttribute("posts", page.getItems());
+        model.addAttribute("nextCursor", page.getNextCursor());
         model.addAttribute("category", category);
         model.addAttribute("city", city);
+        model.addAttribute("sort", sortKey);
         model.addAttribute("username", session.getAttribute("username"));
         model.addAttribute("userId", session.getAttribute("userId"));
         return "pond/index";
     }
 
+    /**
+     * 筛选面板计数API（JSON格式）：各分类、各城市的动态数，分类计数受已选城市约束，城市计数受已选分类约束
+     */
+    @GetMapping("/facets")
+    @ResponseBody
+    public java.util.Map<String, Object> facets(@RequestParam(required = false) List<String> category,
+                                                @RequestParam(required = false) List<String> city) {
+        PondFilterIndex.Facets facets = pondService.getFacets(category, city);
+        java.util.Map<String, Object> result = new java.util.HashMap<>();
+        result.put("success", true);
+        result.put("categories", facets.categories());
+        result.put("cities", facets.cities());
+        return result;
+    }
+
     /**
      * 发布动态页面
      */
@@ -80,34 +113,24 @@ public class PondController {
             return "redirect:/auth/login";
         }
 
+        // 图片引用数在保存时立即提交，发布失败时释放本次保存的图片
+        List<String> stored = new ArrayList<>();
         try {
-            // 处理图片上传
-            String imageUrls = "";
-            if (images != null && images.length > 0) {
-                List<String> urls = java.util.Arrays.stream(images)
-                    .filter(file -> !file.isEmpty())
-                    .map(file -> {
-                        try {
-                            String originalFilename = file.getOriginalFilename();
-                            String extension = originalFilename != null && originalFilename.contains(".")
-                                ? originalFilename.substring(originalFilename.lastIndexOf("."))
-                                : "";
-                            String filename = UUID.randomUUID().toString() + extension;
-                            Path uploadPath = Paths.get(uploadDir, "pond", filename);
-                            Files.createDirectories(uploadPath.getParent());
-                            Files.write(uploadPath, file.getBytes());
-                            return "/uploads/pond/" + filename;
-                        } catch (IOException e) {
-                            throw new RuntimeException("图片上传失败", e);
-                        }
-                    })
-                    .collect(Collectors.toList());
-                imageUrls = String.join(",", urls);
+            // 处理图片上传（按内容去重保存）
+            if (images != null) {
+                for (MultipartFile file : images) {
+                    if (file != null && !file.isEmpty()) {
+                        stored.add(uploadStorageService.store(file));
+                    }
+                }
             }
 
-            pondService.createPost(userId, content, imageUrls, category, city);
+            pondService.createPost(userId, content, String.join(",", stored), category, city);
             return "redirect:/pond";
         } catch (Exception e) {
+            for (String url : stored) {
+                uploadStorageService.release(url);
+            }
             model.addAttribute("error", "发布失败：" + e.getMessage());
             model.addAttribute("username", session.getAttribute("username"));
             return "pond/publish";
@@ -125,7 +148,9 @@ public class PondController {
         }
 
         PondPost post = postOpt.get();
-        List<PondComment> comments = pondService.getComments(id);
+        // 先取版本号再加载评论，之后的变更都能通过增量轮询拿到
+        long commentsVersion = commentVersions.current(id);
+        CursorPage<CommentNode> comments = commentTreeService.pageTree(id, null, PondCommentTreeService.ROOT_PAGE_SIZE);
 
         // 如果用户已登录，标记该帖子的所有未读消息为已读
         Long userId = (Long) session.getAttribute("userId");
@@ -133,13 +158,44 @@ public class PondController {
             messageService.markPostMessagesRead(id, userId);
         }
 
+        PondLikeService.LikeState likeState = pondLikeService.state(id, userId);
         model.addAttribute("post", post);
-        model.addAttribute("comments", comments);
+        model.addAttribute("liked", likeState.liked());
+        model.addAttribute("likeCount", likeState.likeCount());
+        model.addAttribute("comments", comments.getItems());
+        model.addAttribute("commentsCursor", comments.getNextCursor());
+        model.addAttribute("commentsVersion", commentsVersion);
+        model.addAttribute("commentsMaxId", pondService.getMaxCommentId(id));
         model.addAttribute("username", session.getAttribute("username"));
         model.addAttribute("userId", userId);
         return "pond/detail";
     }
 
+    /**
+     * 点赞 / 取消点赞（JSON）
+     */
+    @PostMapping("/post/{id}/like")
+    @ResponseBody
+    public java.util.Map<String, Object> toggleLike(@PathVariable Long id, HttpSession session) {
+        java.util.Map<String, Object> result = new java.util.HashMap<>();
+        Long userId = (Long) session.getAttribute("userId");
+        if (userId == null) {
+            result.put("success", false);
+            result.put("error", "未登录");
+            return result;
+        }
+        try {
+            PondLikeService.LikeState state = pondLikeService.toggle(id, userId);
+            result.put("success", true);
+            result.put("liked", state.liked());
+            result.put("likeCount", state.likeCount());
+        } catch (RuntimeException e) {
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        }
+        return result;
+    }
+
     /**
      * 添加评论
      */
@@ -163,14 +219,82 @@ public class PondController {
 
     /**
      * 获取评论列表API（JSON格式）
+     * - 带上 sinceId（已有的最大评论ID）和 version（上次返回的版本号）时只返回增量：新评论，以及被删除的评论ID（deletedIds）；
+     *   version 太旧或来自重启之前时退回全量列表（full=true）
+     * - 版本号同时作为 ETag，评论没有变化时返回 304，不查询数据库
      */
     @GetMapping("/post/{id}/comments/api")
     @ResponseBody
-    public java.util.Map<String, Object> getCommentsApi(@PathVariable Long id) {
-        List<PondComment> comments = pondService.getComments(id);
+    public ResponseEntity<java.util.Map<String, Object>> getCommentsApi(@PathVariable Long id,
+                                                                       @RequestParam(required = false) Long sinceId,
+                                                                       @RequestParam(required = false) Long version,
+                                                                       WebRequest webRequest) {
+        long current = commentVersions.current(id);
+        if (webRequest.checkNotModified(commentsEtag(id, current))) {
+            return null;
+        }
+        java.util.Map<String, Object> result = new java.util.HashMap<>();
+        PondCommentVersions.Delta delta = sinceId != null && version != null
+                ? commentVersions.changesSince(id, version) : null;
+        long resultVersion;
+        if (delta == null) {
+            result.put("comments", pondService.getComments(id));
+            result.put("deletedIds", List.of());
+            result.put("full", true);
+            resultVersion = current;
+        } else {
+            List<PondComment> comments = new ArrayList<>(pondService.getCommentsAfter(id, sinceId));
+            // 提交晚于更大ID评论的新评论，ID 落在 sinceId 之前，按变更记录补上
+            List<Long> lateIds = delta.addedIds().stream().filter(cid -> cid <= sinceId).toList();
+            if (!lateIds.isEmpty()) {
+                java.util.Set<Long> seen = new HashSet<>();
+                comments.forEach(c -> seen.add(c.getId()));
+                pondService.getCommentsByIds(id, lateIds).stream()
+                        .filter(c -> seen.add(c.getId()))
+                        .forEach(comments::add);
+                comments.sort(Comparator.comparing(PondComment::getId));
+            }
+            result.put("comments", comments);
+            result.put("deletedIds", delta.deletedIds());
+            result.put("full", false);
+            resultVersion = delta.version();
+        }
+        result.put("success", true);
+        result.put("version", resultVersion);
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache()).eTag(commentsEtag(id, resultVersion)).body(result);
+    }
+
+    private static String commentsEtag(Long postId, long version) {
+        return "\"p" + postId + "-" + Long.toHexString(version) + "\"";
+    }
+
+    /**
+     * 评论树分页API（JSON格式）：一页顶级评论及其前几条回复
+     */
+    @GetMapping("/post/{id}/comments/tree")
+    @ResponseBody
+    public java.util.Map<String, Object> getCommentTree(@PathVariable Long id,
+                                                        @RequestParam(required = false) String cursor) {
+        CursorPage<CommentNode> page = commentTreeService.pageTree(id, cursor, PondCommentTreeService.ROOT_PAGE_SIZE);
+        java.util.Map<String, Object> result = new java.util.HashMap<>();
+        result.put("success", true);
+        result.put("comments", page.getItems());
+        result.put("nextCursor", page.getNextCursor());
+        return result;
+    }
+
+    /**
+     * 查看更多回复API（JSON格式）
+     */
+    @GetMapping("/comment/{id}/replies")
+    @ResponseBody
+    public java.util.Map<String, Object> getReplies(@PathVariable Long id,
+                                                    @RequestParam(required = false) String cursor) {
+        CursorPage<CommentNode> page = commentTreeService.pageReplies(id, cursor, PondCommentTreeService.REPLY_PAGE_SIZE);
         java.util.Map<String, Object> result = new java.util.HashMap<>();
         result.put("success", true);
-        result.put("comments", comments);
+        result.put("replies", page.getItems());
+        result.put("nextCursor", page.getNextCursor());
         return result;
     }
 
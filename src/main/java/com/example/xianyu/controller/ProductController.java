@@ -1,27 +1,30 @@
 package com.example.xianyu.controller;
 
+import com.example.xianyu.common.CursorPage;
 import com.example.xianyu.entity.Product;
+import com.example.xianyu.repository.ProductCard;
 import com.example.xianyu.service.CommentService;
 import com.example.xianyu.service.FavoriteService;
 import com.example.xianyu.service.ProductService;
+import com.example.xianyu.service.ThumbnailService;
+import com.example.xianyu.service.UploadStorageService;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.stereotype.Controller;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
 import java.util.Optional;
 @Controller
 @RequestMapping("/product")
@@ -30,15 +33,19 @@ public class ProductController {
     private final ProductService productService;
     private final CommentService commentService;
     private final FavoriteService favoriteService;
-    @Value("${upload.dir:${user.dir}/uploads}")
-    private String uploadDir;
+    private final ThumbnailService thumbnailService;
+    private final UploadStorageService uploadStorageService;
 
     public ProductController(ProductService productService,
                              CommentService commentService,
-                             FavoriteService favoriteService) {
+                             FavoriteService favoriteService,
+                             ThumbnailService thumbnailService,
+                             UploadStorageService uploadStorageService) {
         this.productService = productService;
         this.commentService = commentService;
         this.favoriteService = favoriteService;
+        this.thumbnailService = thumbnailService;
+        this.uploadStorageService = uploadStorageService;
     }
 
     // 商品列表：支持关键字和分类筛选
@@ -46,13 +53,43 @@ public class ProductController {
     public String list(@RequestParam(required = false) String keyword,
                        @RequestParam(required = false) String category,
                        Model model) {
-        List<Product> products = productService.listOnSale(keyword, category);
-        model.addAttribute("products", products);
+        if (keyword != null && !keyword.isEmpty() && (category == null || category.isEmpty())) {
+            // 关键字搜索按相关度排序，一次返回全部命中结果
+            model.addAttribute("products", productService.listOnSale(keyword, category));
+        } else {
+            CursorPage<ProductCard> page = productService.pageOnSale(category, null, ProductService.DEFAULT_PAGE_SIZE);
+            model.addAttribute("products", page.getItems());
+            model.addAttribute("nextCursor", page.getNextCursor());
+        }
         model.addAttribute("keyword", keyword);
         model.addAttribute("category", category);
         return "product/list";
     }
 
+    // 商品列表下一页（JSON，用于无限滚动）
+    @GetMapping("/api/list")
+    @ResponseBody
+    public Map<String, Object> listApi(@RequestParam(required = false) String category,
+                                       @RequestParam(required = false) String cursor,
+                                       @RequestParam(defaultValue = "20") int size) {
+        CursorPage<ProductCard> page = productService.pageOnSale(category, cursor, size);
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        // 商品ID -> 首图缩略图地址
+        Map<Long, String> thumbnails = new HashMap<>();
+        for (ProductCard card : page.getItems()) {
+            String imageUrl = card.getImageUrl();
+            if (imageUrl != null && !imageUrl.isEmpty()) {
+                thumbnails.put(card.getId(), thumbnailService.url(imageUrl.split(",")[0], 400));
+            }
+        }
+        result.put("products", page.getItems());
+        result.put("thumbnails", thumbnails);
+        result.put("nextCursor", page.getNextCursor());
+        result.put("hasMore", page.isHasMore());
+        return result;
+    }
+
     // 商品详情
     @GetMapping("/detail")
     public String detail(@RequestParam("id") Long id, Model model) {
@@ -115,60 +152,49 @@ public class ProductController {
             return "product/publish";
         }
         
-        try {
-            StringBuilder imageUrls = new StringBuilder();
-            // 图片保存到 products/用户名/ 目录
-            Path uploadPath = Paths.get(uploadDir, "products", username).toAbsolutePath();
-            if (!Files.exists(uploadPath)) {
-                Files.createDirectories(uploadPath);
+        // 先校验全部图片（格式、大小），通过后才保存，校验失败不会留下已保存的文件
+        int validImageCount = 0;
+        for (MultipartFile image : images) {
+            if (image == null || image.isEmpty() || image.getOriginalFilename() == null) {
+                continue;
+            }
+            validImageCount++;
+            // 验证文件格式
+            String lower = image.getOriginalFilename().toLowerCase();
+            if (!(lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png") || lower.endsWith(".gif"))) {
+                model.addAttribute("error", "图片格式仅支持 JPG/PNG/GIF");
+                return "product/publish";
             }
 
-            int validImageCount = 0;
-            for (MultipartFile image : images) {
-                if (image != null && !image.isEmpty()) {
-                    String original = image.getOriginalFilename();
-                    if (original != null) {// 验证文件格式
-                        String lower = original.toLowerCase();
-                        if (!(lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png") || lower.endsWith(".gif"))) {
-                            model.addAttribute("error", "图片格式仅支持 JPG/PNG/GIF");
-                            return "product/publish";
-                        }
-
-                        // 验证文件大小（5MB）
-                        if (image.getSize() > 5 * 1024 * 1024) {
-                            model.addAttribute("error", "图片大小不能超过5MB");
-                            return "product/publish";
-                        }
+            // 验证文件大小（5MB）
+            if (image.getSize() > 5 * 1024 * 1024) {
+                model.addAttribute("error", "图片大小不能超过5MB");
+                return "product/publish";
+            }
+        }
 
-                        // 保存文件
-                        String ext = original.substring(original.lastIndexOf("."));
-                        String newName = UUID.randomUUID().toString() + ext;
-                        Path filePath = uploadPath.resolve(newName);
-                        image.transferTo(filePath.toFile());
+        // 再次验证：确保至少有一张有效图片
+        if (validImageCount == 0) {
+            model.addAttribute("error", "请至少上传一张有效的商品图片");
+            return "product/publish";
+        }
 
-                        // 拼接URL（包含用户名路径）
-                        if (imageUrls.length() > 0) {
-                            imageUrls.append(",");
-                        }
-                        imageUrls.append("/uploads/products/").append(username).append("/").append(newName);
-                        validImageCount++;
-                    }
+        List<String> stored = new ArrayList<>();
+        try {
+            // 保存文件（按内容去重）；引用数立即提交，发布失败时释放
+            for (MultipartFile image : images) {
+                if (image != null && !image.isEmpty() && image.getOriginalFilename() != null) {
+                    stored.add(uploadStorageService.store(image));
                 }
             }
-            
-            // 再次验证：确保至少有一张有效图片
-            if (validImageCount == 0) {
-                model.addAttribute("error", "请至少上传一张有效的商品图片");
-                return "product/publish";
-            }
-
-            String imageUrlStr = imageUrls.toString();
-            productService.publish(userId, title, description, price, category, imageUrlStr);
+            productService.publish(userId, title, description, price, category, String.join(",", stored));
             return "redirect:/product/list";
         } catch (IOException e) {
+            releaseAll(stored);
             model.addAttribute("error", "图片上传失败：" + e.getMessage());
             return "product/publish";
         } catch (Exception e) {
+            releaseAll(stored);
             model.addAttribute("error", "发布失败：" + e.getMessage());
             return "product/publish";
         }
@@ -194,28 +220,12 @@ public class ProductController {
     }
 
     /**
-     * 删除商品图片文件
+     * 释放商品图片（引用数减一，没有其他商品、动态使用时才删除文件）
      */
     private void deleteProductImages(Product product) {
         if (product.getImageUrl() != null && !product.getImageUrl().isEmpty()) {
-            try {
-                // 图片URL格式：/uploads/products/用户名/文件名 或 /uploads/products/文件名（旧格式）
-                String[] imageUrls = product.getImageUrl().split(",");
-                for (String imageUrl : imageUrls) {
-                    if (imageUrl != null && !imageUrl.trim().isEmpty()) {
-                        // 移除开头的 /uploads，转换为文件系统路径
-                        String relativePath = imageUrl.startsWith("/uploads/") 
-                            ? imageUrl.substring("/uploads/".length()) 
-                            : imageUrl;
-                        Path imagePath = Paths.get(uploadDir, relativePath).toAbsolutePath();
-                        if (Files.exists(imagePath)) {
-                            Files.delete(imagePath);
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                // 记录日志，但不影响删除流程
-                System.err.println("删除商品图片失败: " + e.getMessage());
+            for (String imageUrl : product.getImageUrl().split(",")) {
+                uploadStorageService.release(imageUrl);
             }
         }
     }
@@ -335,16 +345,33 @@ public class ProductController {
             return "redirect:/product/my";
         }
 
+        String oldImageUrl = product.getImageUrl();
+        List<String> stored = new ArrayList<>();
         try {
             String imageUrlStr = null;
             
             // 处理图片：如果有新上传的图片，使用新图片；否则保留原有图片
             if (images != null && images.length > 0) {
-                // 验证图片数量
+                // 先校验全部图片（数量、格式、大小），通过后才保存，校验失败不会留下已保存的文件
                 int validImageCount = 0;
                 for (MultipartFile image : images) {
-                    if (image != null && !image.isEmpty()) {
-                        validImageCount++;
+                    if (image == null || image.isEmpty() || image.getOriginalFilename() == null) {
+                        continue;
+                    }
+                    validImageCount++;
+                    // 验证文件格式
+                    String lower = image.getOriginalFilename().toLowerCase();
+                    if (!(lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png") || lower.endsWith(".gif"))) {
+                        model.addAttribute("error", "图片格式仅支持 JPG/PNG/GIF");
+                        model.addAttribute("product", product);
+                        return "product/edit";
+                    }
+
+                    // 验证文件大小（5MB）
+                    if (image.getSize() > 5 * 1024 * 1024) {
+                        model.addAttribute("error", "图片大小不能超过5MB");
+                        model.addAttribute("product", product);
+                        return "product/edit";
                     }
                 }
                 
@@ -355,60 +382,31 @@ public class ProductController {
                 }
                 
                 if (validImageCount > 0) {
-                    // 删除旧图片（如果用户上传了新图片）
-                    deleteProductImages(product);
-                    
-                    // 保存新图片
-                    StringBuilder imageUrls = new StringBuilder();
-                    Path uploadPath = Paths.get(uploadDir, "products", username).toAbsolutePath();
-                    if (!Files.exists(uploadPath)) {
-                        Files.createDirectories(uploadPath);
-                    }
-
+                    // 保存新图片（按内容去重）；旧图片在商品更新成功后才释放
                     for (MultipartFile image : images) {
-                        if (image != null && !image.isEmpty()) {
-                            String original = image.getOriginalFilename();
-                            if (original != null) {
-                                // 验证文件格式
-                                String lower = original.toLowerCase();
-                                if (!(lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png") || lower.endsWith(".gif"))) {
-                                    model.addAttribute("error", "图片格式仅支持 JPG/PNG/GIF");
-                                    model.addAttribute("product", product);
-                                    return "product/edit";
-                                }
-
-                                // 验证文件大小（5MB）
-                                if (image.getSize() > 5 * 1024 * 1024) {
-                                    model.addAttribute("error", "图片大小不能超过5MB");
-                                    model.addAttribute("product", product);
-                                    return "product/edit";
-                                }
-
-                                // 保存文件
-                                String ext = original.substring(original.lastIndexOf("."));
-                                String newName = UUID.randomUUID().toString() + ext;
-                                Path filePath = uploadPath.resolve(newName);
-                                image.transferTo(filePath.toFile());
-
-                                // 拼接URL
-                                if (imageUrls.length() > 0) {
-                                    imageUrls.append(",");
-                                }
-                                imageUrls.append("/uploads/products/").append(username).append("/").append(newName);
-                            }
+                        if (image != null && !image.isEmpty() && image.getOriginalFilename() != null) {
+                            stored.add(uploadStorageService.store(image));
                         }
                     }
-                    imageUrlStr = imageUrls.toString();
+                    imageUrlStr = String.join(",", stored);
                 }
             }
             
-            // 如果没有上传新图片，使用保留的图片URL
+            // 如果没有上传新图片，使用保留的图片URL（只能是商品当前的图片）
             if (imageUrlStr == null || imageUrlStr.isEmpty()) {
                 if (keepImages != null && !keepImages.isEmpty()) {
-                    imageUrlStr = keepImages;
+                    List<String> current = splitUrls(oldImageUrl);
+                    for (String url : splitUrls(keepImages)) {
+                        if (!current.contains(url)) {
+                            model.addAttribute("error", "保留的图片不属于该商品");
+                            model.addAttribute("product", product);
+                            return "product/edit";
+                        }
+                    }
+                    imageUrlStr = String.join(",", splitUrls(keepImages));
                 } else {
                     // 如果没有新图片也没有保留的图片，保留原有图片
-                    imageUrlStr = product.getImageUrl();
+                    imageUrlStr = oldImageUrl;
                 }
             }
             
@@ -420,15 +418,53 @@ public class ProductController {
             }
 
             productService.update(product, title, description, price, category, imageUrlStr);
+            // 更新成功后释放不再使用的旧图片（引用数减一，没有其他商品、动态使用时才删除文件）；
+            // 新上传的图片与旧图片内容相同时地址相同，store 已多加了一个引用，同样释放一次
+            List<String> kept = splitUrls(imageUrlStr);
+            for (String url : splitUrls(oldImageUrl)) {
+                if (!kept.contains(url) || stored.contains(url)) {
+                    uploadStorageService.release(url);
+                }
+            }
             return "redirect:/product/my";
         } catch (IOException e) {
+            releaseAll(stored);
+            product.setImageUrl(oldImageUrl);
             model.addAttribute("error", "图片上传失败：" + e.getMessage());
             model.addAttribute("product", product);
             return "product/edit";
         } catch (Exception e) {
+            releaseAll(stored);
+            product.setImageUrl(oldImageUrl);
             model.addAttribute("error", "更新失败：" + e.getMessage());
             model.addAttribute("product", product);
             return "product/edit";
         }
     }
+
+    /**
+     * 逗号分隔的图片URL拆分为列表（去掉空白项）
+     */
+    private static List<String> splitUrls(String urls) {
+        List<String> result = new ArrayList<>();
+        if (urls == null) {
+            return result;
+        }
+        for (String url : urls.split(",")) {
+            String trimmed = url.trim();
+            if (!trimmed.isEmpty()) {
+                result.add(trimmed);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 发布或更新失败时释放本次已保存的新图片
+     */
+    private void releaseAll(List<String> urls) {
+        for (String url : urls) {
+            uploadStorageService.release(url);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,445 @@
+package com.example.xianyu.controller;
+
+import com.example.xianyu.service.HotImageCache;
+import com.example.xianyu.service.UploadGarbageCollector;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.util.UriUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 上传文件访问（/uploads/**）
+ * - ETag 由内容决定：按内容寻址的文件（及其缩略图）直接用文件名中的哈希；旧文件首次访问时计算 SHA-256 并缓存
+ * - 按内容寻址的文件内容永远不变，返回 immutable 长缓存，浏览器不再重新验证；旧文件返回 no-cache，用 ETag 验证后 304
+ * - 支持单个 Range 请求（视频、大图断点续传）；多段 Range 按完整文件返回
+ * - 较大的文件在 Tomcat 支持时交给 sendfile 零拷贝发送；其他情况用一个 64KB 的缓冲区分块读出写入响应
+ * - 热点图片由 HotImageCache 缓存在堆外内存中，命中时不访问文件系统；同一张图片同时未命中时只读一次文件
+ */
+@Controller
+public class UploadController {
+
+    static final String PREFIX = "/uploads/";
+
+    static final String CACHE_IMMUTABLE = "public, max-age=31536000, immutable";
+    static final String CACHE_REVALIDATE = "no-cache";
+
+    /**
+     * 按内容寻址的路径：[thumbs/<宽度>/]cas/ab/cd/<sha256>.<扩展名>
+     */
+    private static final Pattern CONTENT_ADDRESSED =
+            Pattern.compile("^(?:thumbs/(\\d+)/)?cas/[0-9a-f]{2}/[0-9a-f]{2}/([0-9a-f]{64})\\.[a-z0-9]+$");
+
+    /**
+     * 不小于这个大小的文件才使用 sendfile（与 Tomcat 默认的 sendfileSize 一致）
+     */
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    /**
+     * 不走 sendfile 时的分块大小
+     */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final int ETAG_CACHE_SIZE = 10_000;
+
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    private final Path root;
+    private final HotImageCache imageCache;
+    private final UploadGarbageCollector garbageCollector;
+
+    /**
+     * 正在读入缓存的图片：访问地址 -> 读取结果，其他请求等待同一个结果
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<HotImageCache.Entry>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * 旧文件的 ETag 缓存：相对路径 -> (大小, 修改时间, ETag)，LRU
+     */
+    private final Map<String, CachedEtag> etags = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedEtag> eldest) {
+            return size() > ETAG_CACHE_SIZE;
+        }
+    };
+
+    public UploadController(@Value("${upload.dir:${user.dir}/uploads}") String uploadDir,
+                            HotImageCache imageCache,
+                            UploadGarbageCollector garbageCollector) {
+        this.root = Paths.get(uploadDir).toAbsolutePath().normalize();
+        this.imageCache = imageCache;
+        this.garbageCollector = garbageCollector;
+    }
+
+    @RequestMapping(value = "/uploads/**", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public void serve(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String relative = relativePath(request);
+        if (relative == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String url = PREFIX + relative;
+        Path file = root.resolve(relative).normalize();
+        // 命中时直接使用缓存的元数据和内容，不访问文件系统
+        HotImageCache.Entry cached = imageCache.get(url);
+        String etag;
+        boolean immutable;
+        long length;
+        long lastModified;
+        String contentType;
+        if (cached != null) {
+            etag = cached.etag();
+            immutable = cached.immutable();
+            length = cached.length();
+            lastModified = cached.lastModified();
+            contentType = cached.contentType();
+        } else {
+            BasicFileAttributes attrs = null;
+            if (file.startsWith(root)) {
+                try {
+                    attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    attrs = null;
+                }
+            }
+            if (attrs == null || !attrs.isRegularFile()) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            Matcher contentAddressed = CONTENT_ADDRESSED.matcher(relative);
+            immutable = contentAddressed.matches();
+            etag = immutable ? contentEtag(contentAddressed) : fileEtag(relative, file, attrs);
+            length = attrs.size();
+            lastModified = attrs.lastModifiedTime().toMillis();
+            String mimeType = request.getServletContext().getMimeType(file.getFileName().toString());
+            contentType = mimeType != null ? mimeType : "application/octet-stream";
+            if (contentType.startsWith("image/") && imageCache.shouldLoad(url, length)) {
+                cached = load(url, file, length, etag, immutable, lastModified, contentType);
+                if (cached != null) {
+                    // 可能是同时读取的其他请求的结果，以缓存项的元数据为准
+                    etag = cached.etag();
+                    immutable = cached.immutable();
+                    length = cached.length();
+                    lastModified = cached.lastModified();
+                    contentType = cached.contentType();
+                }
+            }
+        }
+
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", immutable ? CACHE_IMMUTABLE : CACHE_REVALIDATE);
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setDateHeader("Last-Modified", lastModified);
+        if (etagMatches(request.getHeader("If-None-Match"), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType(contentType);
+
+        long start = 0;
+        long end = length;
+        String range = request.getHeader("Range");
+        String ifRange = request.getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.trim().equals(etag))) {
+            long[] bounds = parseRange(range, length);
+            if (bounds == UNSATISFIABLE) {
+                response.setHeader("Content-Range", "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (bounds != null) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + length);
+            }
+        }
+        long count = end - start;
+        response.setContentLengthLong(count);
+        if ("HEAD".equals(request.getMethod()) || count == 0) {
+            return;
+        }
+
+        if (cached != null) {
+            write(cached.slice(start, end), response);
+            return;
+        }
+        if (count >= SENDFILE_MIN_SIZE && Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))) {
+            // 由 Tomcat 在请求处理结束后用 sendfile 直接从文件发送到 socket
+            request.setAttribute("org.apache.tomcat.sendfile.filename", file.toString());
+            request.setAttribute("org.apache.tomcat.sendfile.start", start);
+            request.setAttribute("org.apache.tomcat.sendfile.end", end);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // 目标是 Servlet 输出流而不是 socket 通道，transferTo 也只能退化为堆内复制，直接按块读写
+            ServletOutputStream out = response.getOutputStream();
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(COPY_BUFFER_SIZE, count));
+            long position = start;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                out.write(buffer.array(), 0, read);
+                position += read;
+            }
+        }
+    }
+
+    /**
+     * 图片缓存命中率等统计
+     */
+    @GetMapping("/uploads-cache/stats")
+    @ResponseBody
+    public Map<String, Object> cacheStats(HttpServletRequest request) {
+        if (!loggedIn(request)) {
+            return Map.of("error", "未登录");
+        }
+        return imageCache.stats();
+    }
+
+    /**
+     * 孤儿文件回收的进度和报告（演练模式下即为待删除文件的统计和样例）
+     */
+    @GetMapping("/uploads-gc/status")
+    @ResponseBody
+    public Map<String, Object> garbageCollectorStatus(HttpServletRequest request) {
+        if (!loggedIn(request)) {
+            return Map.of("error", "未登录");
+        }
+        return garbageCollector.status();
+    }
+
+    /**
+     * 只看会话，不为匿名请求创建会话
+     */
+    private static boolean loggedIn(HttpServletRequest request) {
+        HttpSession session = request.getSession(false);
+        return session != null && session.getAttribute("userId") != null;
+    }
+
+    /**
+     * 把文件读入 direct buffer 并放入缓存；读取失败或大小已变化时返回 null，按普通文件发送。
+     * 同一张图片已有请求在读取时等待它的结果，热点图片失效后的并发请求不会各自分配缓冲区读一遍
+     */
+    private HotImageCache.Entry load(String url, Path file, long length, String etag, boolean immutable,
+                                     long lastModified, String contentType) {
+        CompletableFuture<HotImageCache.Entry> mine = new CompletableFuture<>();
+        CompletableFuture<HotImageCache.Entry> inFlight = loading.putIfAbsent(url, mine);
+        if (inFlight != null) {
+            try {
+                return inFlight.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+        HotImageCache.Entry entry = null;
+        try {
+            entry = read(url, file, length, etag, immutable, lastModified, contentType);
+            return entry;
+        } finally {
+            loading.remove(url, mine);
+            mine.complete(entry);
+        }
+    }
+
+    private HotImageCache.Entry read(String url, Path file, long length, String etag, boolean immutable,
+                                     long lastModified, String contentType) {
+        long token = imageCache.beginLoad(url);
+        ByteBuffer content = ByteBuffer.allocateDirect((int) length);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (content.hasRemaining()) {
+                if (channel.read(content) < 0) {
+                    imageCache.abortLoad(url, token);
+                    return null;
+                }
+            }
+            if (channel.size() != length) {
+                imageCache.abortLoad(url, token);
+                return null;
+            }
+        } catch (IOException e) {
+            imageCache.abortLoad(url, token);
+            return null;
+        }
+        HotImageCache.Entry entry = new HotImageCache.Entry(content.flip().asReadOnlyBuffer(), etag, immutable,
+                lastModified, contentType);
+        imageCache.put(url, entry, token);
+        return entry;
+    }
+
+    /**
+     * 从堆外缓冲区写出：Tomcat 的输出流可以直接写 ByteBuffer，其他容器经通道写出
+     */
+    private static void write(ByteBuffer content, HttpServletResponse response) throws IOException {
+        ServletOutputStream out = response.getOutputStream();
+        if (out instanceof CoyoteOutputStream coyote) {
+            coyote.write(content);
+            return;
+        }
+        WritableByteChannel channel = Channels.newChannel(out);
+        while (content.hasRemaining()) {
+            channel.write(content);
+        }
+    }
+
+    /**
+     * /uploads/ 之后的相对路径（已解码）；包含 ..、反斜杠或位于临时目录时返回 null
+     */
+    private static String relativePath(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        String contextPath = request.getContextPath();
+        if (contextPath != null && !contextPath.isEmpty() && uri.startsWith(contextPath)) {
+            uri = uri.substring(contextPath.length());
+        }
+        if (!uri.startsWith(PREFIX)) {
+            return null;
+        }
+        String relative;
+        try {
+            relative = UriUtils.decode(uri.substring(PREFIX.length()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (relative.isEmpty() || relative.contains("..") || relative.contains("\\") || relative.indexOf('\0') >= 0
+                || relative.startsWith("tmp/")) {
+            return null;
+        }
+        return relative;
+    }
+
+    /**
+     * 按内容寻址的文件：哈希就是内容摘要；缩略图再带上宽度
+     */
+    private static String contentEtag(Matcher matcher) {
+        String width = matcher.group(1);
+        return "\"" + (width != null ? "w" + width + "-" : "") + matcher.group(2) + "\"";
+    }
+
+    /**
+     * 旧文件：大小和修改时间不变时复用缓存的内容摘要
+     */
+    private String fileEtag(String relative, Path file, BasicFileAttributes attrs) throws IOException {
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        synchronized (etags) {
+            CachedEtag cached = etags.get(relative);
+            if (cached != null && cached.size == size && cached.modified == modified) {
+                return cached.etag;
+            }
+        }
+        MessageDigest digest = sha256();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        String etag = "\"" + HexFormat.of().formatHex(digest.digest()) + "\"";
+        synchronized (etags) {
+            etags.put(relative, new CachedEtag(size, modified, etag));
+        }
+        return etag;
+    }
+
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 解析单个字节范围，返回 [start, end)；格式不支持或多段时返回 null（按完整文件返回），超出文件时返回 UNSATISFIABLE
+     */
+    static long[] parseRange(String header, long length) {
+        String value = header.trim();
+        if (!value.startsWith("bytes=") || value.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = value.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // 最后 n 个字节
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new long[]{Math.max(0, length - suffix), length};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length : Math.min(Long.parseLong(last) + 1, length);
+            if (start >= length) {
+                return UNSATISFIABLE;
+            }
+            if (end <= start) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record CachedEtag(long size, long modified, String etag) {
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.xianyu.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 会话摘要（消息中心读模型）
+ * 每个会话一行：两个用户围绕同一个商品或同一条鱼塘动态的全部往来消息；系统消息每条单独一行
+ * 发送消息、标记已读、删除会话时与 message 表在同一事务内维护
+ */
+@Entity
+@Table(name = "conversation",
+        uniqueConstraints = @UniqueConstraint(name = "uk_conversation_key", columnNames = {"userA", "userB", "kind", "refId"}),
+        indexes = {
+                @Index(name = "idx_conversation_a_time", columnList = "userA, lastTime, id"),
+                @Index(name = "idx_conversation_b_time", columnList = "userB, lastTime, id")
+        })
+@Data
+public class Conversation {
+
+    public static final String KIND_PRODUCT = "product";
+    public static final String KIND_POND = "pond";
+    public static final String KIND_SYSTEM = "system";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * 参与者中ID较小的一方（系统消息为收件人）
+     */
+    @Column(nullable = false)
+    private Long userA;
+
+    /**
+     * 参与者中ID较大的一方（系统消息为 0）
+     */
+    @Column(nullable = false)
+    private Long userB;
+
+    /**
+     * 会话类型：product / pond / system
+     */
+    @Column(nullable = false, length = 20)
+    private String kind;
+
+    /**
+     * 关联对象：商品ID / 帖子ID / 系统消息ID
+     */
+    @Column(nullable = false)
+    private Long refId;
+
+    private Long lastMessageId;
+
+    private Long lastSenderId;
+
+    @Column(length = 50)
+    private String lastSenderName;
+
+    /**
+     * 最后一条消息的标题快照
+     */
+    @Column(length = 100)
+    private String lastTitle;
+
+    /**
+     * 最后一条消息的内容预览（截断）
+     */
+    @Column(length = 255)
+    private String lastContent;
+
+    @Column(length = 20)
+    private String lastType;
+
+    private LocalDateTime lastTime;
+
+    /**
+     * userA 的未读数
+     */
+    @Column(nullable = false)
+    private Integer unreadA;
+
+    /**
+     * userB 的未读数
+     */
+    @Column(nullable = false)
+    private Integer unreadB;
+
+    private LocalDateTime createTime;
+
+    private LocalDateTime updateTime;
+
+    @PrePersist
+    public void prePersist() {
+        if (createTime == null) {
+            createTime = LocalDateTime.now();
+        }
+        updateTime = LocalDateTime.now();
+        if (unreadA == null) {
+            unreadA = 0;
+        }
+        if (unreadB == null) {
+            unreadB = 0;
+        }
+    }
+
+    @PreUpdate
+    public void preUpdate() {
+        updateTime = LocalDateTime.now();
+    }
+
+    /**
+     * 对方用户ID（系统消息返回 null）
+     */
+    public Long otherUserId(Long me) {
+        if (KIND_SYSTEM.equals(kind)) {
+            return null;
+        }
+        return userA.equals(me) ? userB : userA;
+    }
+
+    /**
+     * 当前用户的未读数
+     */
+    public int unreadOf(Long me) {
+        Integer unread = userA.equals(me) ? unreadA : unreadB;
+        return unread != null ? unread : 0;
+    }
+}
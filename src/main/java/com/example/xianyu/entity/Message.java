@@ -6,7 +6,12 @@ import lombok.Data;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "message")
+@Table(name = "message", indexes = {
+        @Index(name = "idx_message_user_unread", columnList = "userId, readFlag, productId, senderId"),
+        @Index(name = "idx_message_user_unread_post", columnList = "userId, readFlag, postId, type"),
+        @Index(name = "idx_message_thread", columnList = "productId, userId, senderId, id"),
+        @Index(name = "idx_message_post_thread", columnList = "postId, userId, senderId")
+})
 @Data
 public class Message {
 
@@ -59,6 +64,11 @@ public class Message {
     @Column(length = 20)
     private String type;
 
+    /**
+     * 合并的通知条数（同一帖子短时间内的多条评论通知合并为一条未读消息；普通消息为空）
+     */
+    private Integer mergedCount;
+
     /**
      * 是否已读
      */
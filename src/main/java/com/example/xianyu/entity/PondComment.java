@@ -9,7 +9,11 @@ import java.time.LocalDateTime;
  * 鱼塘动态评论实体
  */
 @Entity
-@Table(name = "pond_comment")
+@Table(name = "pond_comment", indexes = {
+        @Index(name = "idx_pond_comment_post_time", columnList = "postId, createTime"),
+        @Index(name = "idx_pond_comment_post_id", columnList = "postId, id"),
+        @Index(name = "idx_pond_comment_parent_time", columnList = "parentId, createTime, id")
+})
 @Data
 public class PondComment {
 
@@ -0,0 +1,36 @@
+package com.example.xianyu.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 鱼塘动态点赞
+ */
+@Entity
+@Table(name = "pond_like",
+        uniqueConstraints = @UniqueConstraint(name = "uk_pond_like_post_user", columnNames = {"postId", "userId"}),
+        indexes = @Index(name = "idx_pond_like_user", columnList = "userId, postId"))
+@Data
+public class PondLike {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long postId;
+
+    @Column(nullable = false)
+    private Long userId;
+
+    private LocalDateTime createTime;
+
+    @PrePersist
+    public void prePersist() {
+        if (createTime == null) {
+            createTime = LocalDateTime.now();
+        }
+    }
+}
@@ -9,7 +9,9 @@ import java.time.LocalDateTime;
  * 鱼塘动态实体
  */
 @Entity
-@Table(name = "pond_post")
+@Table(name = "pond_post", indexes = {
+        @Index(name = "idx_pond_post_time", columnList = "createTime, id")
+})
 @Data
 public class PondPost {
 
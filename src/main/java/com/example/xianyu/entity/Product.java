@@ -7,7 +7,10 @@ import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "product")
+@Table(name = "product", indexes = {
+        @Index(name = "idx_product_status_time", columnList = "status, createTime, id"),
+        @Index(name = "idx_product_category_status_time", columnList = "category, status, createTime, id")
+})
 @Data
 public class Product {
 
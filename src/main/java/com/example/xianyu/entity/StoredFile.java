@@ -0,0 +1,49 @@
+package com.example.xianyu.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 按内容寻址保存的上传文件（同样内容只存一份），refCount 为引用它的商品、动态、头像数
+ */
+@Entity
+@Table(name = "stored_file",
+        uniqueConstraints = @UniqueConstraint(name = "uk_stored_file_hash", columnNames = "hash"))
+@Data
+public class StoredFile {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * 内容的 SHA-256（十六进制小写）
+     */
+    @Column(nullable = false, length = 64)
+    private String hash;
+
+    /**
+     * 访问地址，如 /uploads/cas/ab/cd/abcd....jpg
+     */
+    @Column(nullable = false)
+    private String url;
+
+    private Long size;
+
+    @Column(nullable = false)
+    private Integer refCount;
+
+    private LocalDateTime createTime;
+
+    @PrePersist
+    public void prePersist() {
+        if (createTime == null) {
+            createTime = LocalDateTime.now();
+        }
+        if (refCount == null) {
+            refCount = 0;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.xianyu.repository;
+
+import com.example.xianyu.entity.Conversation;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface ConversationRepository extends JpaRepository<Conversation, Long> {
+
+    /**
+     * 新消息写入会话摘要（不存在则创建），单条语句完成，避免并发发送时丢失更新
+     * 只有比当前最后一条更新的消息才会覆盖摘要；last_message_id 必须最后赋值，前面的判断才能读到旧值
+     */
+    @Modifying
+    @Query(value = """
+        insert into conversation (user_a, user_b, kind, ref_id, last_message_id, last_sender_id, last_sender_name,
+                                  last_title, last_content, last_type, last_time, unread_a, unread_b, create_time, update_time)
+        values (:userA, :userB, :kind, :refId, :messageId, :senderId, :senderName,
+                :title, :content, :type, :time, :incA, :incB, :time, :time)
+        on duplicate key update
+            unread_a = unread_a + values(unread_a),
+            unread_b = unread_b + values(unread_b),
+            last_sender_id = if(values(last_message_id) > last_message_id, values(last_sender_id), last_sender_id),
+            last_sender_name = if(values(last_message_id) > last_message_id, values(last_sender_name), last_sender_name),
+            last_title = if(values(last_message_id) > last_message_id, values(last_title), last_title),
+            last_content = if(values(last_message_id) > last_message_id, values(last_content), last_content),
+            last_type = if(values(last_message_id) > last_message_id, values(last_type), last_type),
+            last_time = if(values(last_message_id) > last_message_id, values(last_time), last_time),
+            update_time = values(update_time),
+            last_message_id = greatest(last_message_id, values(last_message_id))
+        """, nativeQuery = true)
+    int upsertOnMessage(Long userA, Long userB, String kind, Long refId, Long messageId, Long senderId,
+                        String senderName, String title, String content, String type, LocalDateTime time,
+                        int incA, int incB);
+
+    /**
+     * 收件箱第一页：两个方向分别走 (user_a, last_time, id) / (user_b, last_time, id) 索引，各取 limit 条后合并
+     */
+    @Query(value = """
+        select * from (
+            (select * from conversation where user_a = :userId
+             order by last_time desc, id desc limit :limit)
+            union all
+            (select * from conversation where user_b = :userId and user_a <> :userId
+             order by last_time desc, id desc limit :limit)
+        ) t
+        order by last_time desc, id desc
+        limit :limit
+        """, nativeQuery = true)
+    List<Conversation> findInbox(Long userId, int limit);
+
+    /**
+     * 收件箱后续页（游标为上一页最后一个会话的 lastTime + id）
+     */
+    @Query(value = """
+        select * from (
+            (select * from conversation where user_a = :userId
+               and (last_time < :lastTime or (last_time = :lastTime and id < :lastId))
+             order by last_time desc, id desc limit :limit)
+            union all
+            (select * from conversation where user_b = :userId and user_a <> :userId
+               and (last_time < :lastTime or (last_time = :lastTime and id < :lastId))
+             order by last_time desc, id desc limit :limit)
+        ) t
+        order by last_time desc, id desc
+        limit :limit
+        """, nativeQuery = true)
+    List<Conversation> findInboxAfter(Long userId, LocalDateTime lastTime, Long lastId, int limit);
+
+    /**
+     * 最后一条消息被原地修改（合并通知）后刷新摘要快照，未读数不变
+     */
+    @Modifying
+    @Query("""
+        update Conversation c
+        set c.lastSenderName = :senderName, c.lastTitle = :title, c.lastContent = :content,
+            c.lastTime = :time, c.updateTime = :time
+        where c.userA = :userA and c.userB = :userB and c.kind = :kind and c.refId = :refId
+          and c.lastMessageId = :messageId
+    """)
+    int refreshLastMessage(Long userA, Long userB, String kind, Long refId, Long messageId,
+                           String senderName, String title, String content, LocalDateTime time);
+
+    /**
+     * 清零 userA 一侧的未读数
+     */
+    @Modifying
+    @Query("""
+        update Conversation c set c.unreadA = 0
+        where c.userA = :userA and c.userB = :userB and c.kind = :kind and c.refId = :refId
+    """)
+    int clearUnreadA(Long userA, Long userB, String kind, Long refId);
+
+    /**
+     * 清零 userB 一侧的未读数
+     */
+    @Modifying
+    @Query("""
+        update Conversation c set c.unreadB = 0
+        where c.userA = :userA and c.userB = :userB and c.kind = :kind and c.refId = :refId
+    """)
+    int clearUnreadB(Long userA, Long userB, String kind, Long refId);
+
+    /**
+     * 单条消息标记已读后 userA 一侧未读数减一
+     */
+    @Modifying
+    @Query("""
+        update Conversation c set c.unreadA = c.unreadA - 1
+        where c.userA = :userA and c.userB = :userB and c.kind = :kind and c.refId = :refId and c.unreadA > 0
+    """)
+    int decrementUnreadA(Long userA, Long userB, String kind, Long refId);
+
+    /**
+     * 单条消息标记已读后 userB 一侧未读数减一
+     */
+    @Modifying
+    @Query("""
+        update Conversation c set c.unreadB = c.unreadB - 1
+        where c.userA = :userA and c.userB = :userB and c.kind = :kind and c.refId = :refId and c.unreadB > 0
+    """)
+    int decrementUnreadB(Long userA, Long userB, String kind, Long refId);
+
+    /**
+     * 某个帖子下当前用户的所有会话未读清零（两侧分别处理）
+     */
+    @Modifying
+    @Query("""
+        update Conversation c
+        set c.unreadA = case when c.userA = :userId then 0 else c.unreadA end,
+            c.unreadB = case when c.userB = :userId then 0 else c.unreadB end
+        where c.kind = :kind and c.refId = :refId and (c.userA = :userId or c.userB = :userId)
+    """)
+    int clearUnreadByRef(Long userId, String kind, Long refId);
+
+    @Modifying
+    @Query("update Conversation c set c.unreadA = 0 where c.userA = :userId and c.unreadA > 0")
+    int clearAllUnreadA(Long userId);
+
+    @Modifying
+    @Query("update Conversation c set c.unreadB = 0 where c.userB = :userId and c.unreadB > 0")
+    int clearAllUnreadB(Long userId);
+
+    @Modifying
+    @Query("""
+        delete from Conversation c
+        where c.userA = :userA and c.userB = :userB and c.kind = :kind and c.refId = :refId
+    """)
+    int deleteByKey(Long userA, Long userB, String kind, Long refId);
+
+    /**
+     * 删除当前用户在某个帖子下的所有会话
+     */
+    @Modifying
+    @Query("""
+        delete from Conversation c
+        where c.kind = :kind and c.refId = :refId and (c.userA = :userId or c.userB = :userId)
+    """)
+    int deleteByRef(Long userId, String kind, Long refId);
+}
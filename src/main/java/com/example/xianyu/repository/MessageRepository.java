@@ -1,9 +1,14 @@
 package com.example.xianyu.repository;
 
 import com.example.xianyu.entity.Message;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 public interface MessageRepository extends JpaRepository<Message, Long> {
 
@@ -11,33 +16,141 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
 
     Long countByUserIdAndReadFlagFalse(Long userId);
 
+    /**
+     * 时间窗口内该帖子发给用户的最新一条未读通知（加行锁，用于合并评论通知；走 idx_message_user_unread_post 索引）
+     */
+    @Lock(jakarta.persistence.LockModeType.PESSIMISTIC_WRITE)
+    Optional<Message> findFirstByUserIdAndReadFlagFalseAndPostIdAndTypeAndCreateTimeAfterOrderByIdDesc(
+            Long userId, Long postId, String type, LocalDateTime after);
+
+    /**
+     * 按ID顺序分批扫描（用于回填会话摘要），只取摘要需要的列，不加载实体：
+     * (id, userId, senderId, senderName, title, content, type, productId, postId, readFlag, createTime)
+     */
+    @org.springframework.data.jpa.repository.Query("""
+        select m.id, m.userId, m.senderId, m.senderName, m.title, m.content, m.type,
+               m.productId, m.postId, m.readFlag, m.createTime
+        from Message m
+        where m.id > :afterId and m.id <= :maxId
+        order by m.id asc
+    """)
+    List<Object[]> findBackfillRows(Long afterId, Long maxId, Pageable pageable);
+
+    @org.springframework.data.jpa.repository.Query("select max(m.id) from Message m")
+    Long findMaxId();
+
+
+    /**
+     * 会话中ID大于 sinceId 的消息（增量轮询），按ID正序
+     */
     @org.springframework.data.jpa.repository.Query("""
         select m from Message m
         where m.productId = :productId
           and ((m.userId = :userA and m.senderId = :userB)
                or (m.userId = :userB and m.senderId = :userA))
-        order by m.createTime asc
+          and m.id > :sinceId
+        order by m.id asc
     """)
-    List<Message> findThread(Long productId, Long userA, Long userB);
+    List<Message> findThreadAfter(Long productId, Long userA, Long userB, Long sinceId, Pageable pageable);
 
+    /**
+     * 会话中ID小于 beforeId 的消息（向前翻历史），按ID倒序
+     */
     @org.springframework.data.jpa.repository.Query("""
         select m from Message m
         where m.productId = :productId
-          and m.userId = :me and m.senderId = :other
-          and m.readFlag = false
+          and ((m.userId = :userA and m.senderId = :userB)
+               or (m.userId = :userB and m.senderId = :userA))
+          and m.id < :beforeId
+        order by m.id desc
     """)
-    List<Message> findUnreadInThread(Long productId, Long me, Long other);
+    List<Message> findThreadBefore(Long productId, Long userA, Long userB, Long beforeId, Pageable pageable);
+
+    /**
+     * 是否有未读消息（只访问 idx_message_user_unread 索引）
+     */
+    boolean existsByUserIdAndReadFlagFalse(Long userId);
 
     /**
-     * 查找某个帖子的未读消息（针对当前用户）
+     * 某个会话中是否有"我收到的"未读消息（只访问 idx_message_user_unread 索引）
      */
+    boolean existsByUserIdAndReadFlagFalseAndProductIdAndSenderId(Long userId, Long productId, Long senderId);
+
+    /**
+     * 某个帖子下是否有当前用户的未读评论消息（只访问 idx_message_user_unread_post 索引）
+     */
+    boolean existsByUserIdAndReadFlagFalseAndPostIdAndType(Long userId, Long postId, String type);
+
+    /**
+     * 单条消息标记已读，返回实际更新的行数（已读或不属于该用户时为 0）
+     */
+    @Modifying
     @org.springframework.data.jpa.repository.Query("""
-        select m from Message m
+        update Message m set m.readFlag = true, m.updateTime = CURRENT_TIMESTAMP
+        where m.id = :id and m.userId = :userId and m.readFlag = false
+    """)
+    int markReadById(Long id, Long userId);
+
+    /**
+     * 用户的所有消息标记已读，返回更新的行数
+     */
+    @Modifying
+    @org.springframework.data.jpa.repository.Query("""
+        update Message m set m.readFlag = true, m.updateTime = CURRENT_TIMESTAMP
+        where m.userId = :userId and m.readFlag = false
+    """)
+    int markAllReadByUserId(Long userId);
+
+    /**
+     * 某个会话中"我收到的"消息标记已读，返回更新的行数
+     */
+    @Modifying
+    @org.springframework.data.jpa.repository.Query("""
+        update Message m set m.readFlag = true, m.updateTime = CURRENT_TIMESTAMP
+        where m.userId = :me and m.readFlag = false
+          and m.productId = :productId and m.senderId = :other
+    """)
+    int markThreadRead(Long productId, Long me, Long other);
+
+    /**
+     * 某个帖子下当前用户的评论消息标记已读，返回更新的行数
+     */
+    @Modifying
+    @org.springframework.data.jpa.repository.Query("""
+        update Message m set m.readFlag = true, m.updateTime = CURRENT_TIMESTAMP
+        where m.userId = :userId and m.readFlag = false
+          and m.postId = :postId and m.type = 'pond'
+    """)
+    int markPostRead(Long postId, Long userId);
+
+    /**
+     * 删除两人之间关于某个商品的全部消息（双向），走 idx_message_thread 索引
+     */
+    @Modifying
+    @org.springframework.data.jpa.repository.Query("""
+        delete from Message m
+        where m.productId = :productId
+          and ((m.userId = :userA and m.senderId = :userB)
+               or (m.userId = :userB and m.senderId = :userA))
+    """)
+    int deleteProductThread(Long productId, Long userA, Long userB);
+
+    /**
+     * 删除两人之间关于某条鱼塘动态的全部消息（双向），走 idx_message_post_thread 索引
+     */
+    @Modifying
+    @org.springframework.data.jpa.repository.Query("""
+        delete from Message m
         where m.postId = :postId
-          and m.userId = :userId
-          and m.readFlag = false
-          and m.type = 'pond'
+          and ((m.userId = :userA and m.senderId = :userB)
+               or (m.userId = :userB and m.senderId = :userA))
     """)
-    List<Message> findUnreadByPostId(Long postId, Long userId);
-}
+    int deletePostThread(Long postId, Long userA, Long userB);
 
+    /**
+     * 删除用户收到的某条鱼塘动态下的全部消息
+     */
+    @Modifying
+    @org.springframework.data.jpa.repository.Query("delete from Message m where m.postId = :postId and m.userId = :userId")
+    int deleteByPostIdAndUserId(Long postId, Long userId);
+}
@@ -1,8 +1,12 @@
 package com.example.xianyu.repository;
 
 import com.example.xianyu.entity.PondComment;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 public interface PondCommentRepository extends JpaRepository<PondComment, Long> {
@@ -23,18 +27,76 @@ public interface PondCommentRepository extends JpaRepository<PondComment, Long>
     List<PondComment> findByParentIdOrderByCreateTimeAsc(Long parentId);
 
     /**
-     * 统计动态的评论数
+     * 动态中ID大于 sinceId 的评论（增量轮询）
      */
-    long countByPostId(Long postId);
-}
-
-
-
+    List<PondComment> findByPostIdAndIdGreaterThanOrderByIdAsc(Long postId, Long sinceId);
 
+    /**
+     * 按ID批量查询动态的评论
+     */
+    List<PondComment> findByPostIdAndIdInOrderByIdAsc(Long postId, Collection<Long> ids);
 
+    /**
+     * 动态最大的评论ID
+     */
+    @Query("select max(c.id) from PondComment c where c.postId = :postId")
+    Long findMaxIdByPostId(Long postId);
 
+    /**
+     * 统计动态的评论数
+     */
+    long countByPostId(Long postId);
 
+    /**
+     * 评论树：第一页顶级评论（按时间正序）
+     */
+    @Query("""
+        select c from PondComment c
+        where c.postId = :postId and c.parentId is null
+        order by c.createTime asc, c.id asc
+    """)
+    List<PondComment> findRoots(Long postId, Pageable pageable);
 
+    /**
+     * 评论树：游标 (createTime, id) 之后的一页顶级评论
+     */
+    @Query("""
+        select c from PondComment c
+        where c.postId = :postId and c.parentId is null
+          and (c.createTime > :createTime or (c.createTime = :createTime and c.id > :id))
+        order by c.createTime asc, c.id asc
+    """)
+    List<PondComment> findRootsAfter(Long postId, LocalDateTime createTime, Long id, Pageable pageable);
 
+    /**
+     * 一批顶级评论各自最早的 limit 条回复（一条查询，窗口函数按父评论分组编号）
+     */
+    @Query(value = """
+        select c.* from pond_comment c
+        join (
+            select id, row_number() over (partition by parent_id order by create_time, id) as rn
+            from pond_comment
+            where parent_id in (:parentIds)
+        ) r on r.id = c.id
+        where r.rn <= :limit
+        order by c.parent_id, c.create_time, c.id
+        """, nativeQuery = true)
+    List<PondComment> findFirstReplies(Collection<Long> parentIds, int limit);
 
+    /**
+     * 某条评论在游标 (createTime, id) 之后的一页回复
+     */
+    @Query("""
+        select c from PondComment c
+        where c.parentId = :parentId
+          and (c.createTime > :createTime or (c.createTime = :createTime and c.id > :id))
+        order by c.createTime asc, c.id asc
+    """)
+    List<PondComment> findRepliesAfter(Long parentId, LocalDateTime createTime, Long id, Pageable pageable);
 
+    /**
+     * 上传文件回收：按ID键集扫描评论者头像，返回 (id, userAvatar)
+     */
+    @Query("select c.id, c.userAvatar from PondComment c where c.id > :afterId order by c.id asc")
+    List<Object[]> findAvatarsAfter(Long afterId, Pageable pageable);
+}
@@ -0,0 +1,37 @@
+package com.example.xianyu.repository;
+
+import com.example.xianyu.entity.PondLike;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface PondLikeRepository extends JpaRepository<PondLike, Long> {
+
+    /**
+     * 动态的所有点赞用户ID（升序，直接用于构建有序集合）
+     */
+    @Query("select l.userId from PondLike l where l.postId = :postId order by l.userId")
+    List<Long> findUserIdsByPostId(Long postId);
+
+    /**
+     * 写入点赞；已存在时忽略（重复写入不报错）。动态已删除时不写入：
+     * insert ... select 对动态行加共享锁，与未提交的删除冲突时等它提交后再判断，不会留下孤儿点赞
+     */
+    @Modifying
+    @Query(value = """
+        insert ignore into pond_like (post_id, user_id, create_time)
+        select p.id, :userId, :time from pond_post p where p.id = :postId
+        """, nativeQuery = true)
+    int insertIgnore(Long postId, Long userId, LocalDateTime time);
+
+    @Modifying
+    @Query("delete from PondLike l where l.postId = :postId and l.userId = :userId")
+    int deleteByPostIdAndUserId(Long postId, Long userId);
+
+    @Modifying
+    @Query("delete from PondLike l where l.postId = :postId")
+    int deleteByPostId(Long postId);
+}
@@ -1,45 +1,83 @@
 package com.example.xianyu.repository;
 
 import com.example.xianyu.entity.PondPost;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
 import java.util.List;
 
 public interface PondPostRepository extends JpaRepository<PondPost, Long> {
 
     /**
-     * 按创建时间倒序查询所有动态
+     * 筛选索引需要的特征：id, category, city，按发布时间正序（不加载正文）
      */
-    List<PondPost> findAllByOrderByCreateTimeDesc();
+    @Query("select p.id, p.category, p.city from PondPost p order by p.createTime asc, p.id asc")
+    List<Object[]> findFilterFeatures();
 
     /**
-     * 按分类查询动态
+     * 热门排序需要的特征：id, category, city, likeCount, commentCount, createTime（不加载正文）
      */
-    List<PondPost> findByCategoryOrderByCreateTimeDesc(String category);
+    @Query("select p.id, p.category, p.city, p.likeCount, p.commentCount, p.createTime from PondPost p")
+    List<Object[]> findRankFeatures();
 
     /**
-     * 按城市查询动态
+     * 评论数加一（单条 UPDATE，不读取也不回写整行）
      */
-    List<PondPost> findByCityOrderByCreateTimeDesc(String city);
+    @Modifying
+    @Query("update PondPost p set p.commentCount = p.commentCount + 1 where p.id = :id")
+    int incrementCommentCount(Long id);
 
     /**
-     * 按分类和城市查询动态
+     * 评论数减一（不会减到负数）
      */
-    List<PondPost> findByCategoryAndCityOrderByCreateTimeDesc(String category, String city);
+    @Modifying
+    @Query("update PondPost p set p.commentCount = p.commentCount - 1 where p.id = :id and p.commentCount > 0")
+    int decrementCommentCount(Long id);
 
     /**
-     * 查询用户的动态
+     * 点赞数按增量更新（点赞写回时每条动态每批只执行一次）
      */
-    List<PondPost> findByUserIdOrderByCreateTimeDesc(Long userId);
-}
-
-
-
-
-
-
+    @Modifying
+    @Query("update PondPost p set p.likeCount = p.likeCount + :delta where p.id = :id")
+    int addLikeCount(Long id, int delta);
 
+    @Query("select max(p.id) from PondPost p")
+    Long findMaxId();
 
+    /**
+     * 按ID区间校正评论数：只更新与 pond_comment 实际条数不一致的行，返回被校正的行数
+     */
+    @Modifying
+    @Query(value = """
+        update pond_post p
+        set p.comment_count = (select count(*) from pond_comment c where c.post_id = p.id)
+        where p.id > :fromId and p.id <= :toId
+          and p.comment_count <> (select count(*) from pond_comment c2 where c2.post_id = p.id)
+        """, nativeQuery = true)
+    int reconcileCommentCounts(Long fromId, Long toId);
 
+    /**
+     * 按ID区间校正点赞数
+     */
+    @Modifying
+    @Query(value = """
+        update pond_post p
+        set p.like_count = (select count(*) from pond_like l where l.post_id = p.id)
+        where p.id > :fromId and p.id <= :toId
+          and p.like_count <> (select count(*) from pond_like l2 where l2.post_id = p.id)
+        """, nativeQuery = true)
+    int reconcileLikeCounts(Long fromId, Long toId);
 
+    /**
+     * 查询用户的动态
+     */
+    List<PondPost> findByUserIdOrderByCreateTimeDesc(Long userId);
 
+    /**
+     * 上传文件回收：按ID键集扫描动态图片和发布者头像，返回 (id, images, userAvatar)
+     */
+    @Query("select p.id, p.images, p.userAvatar from PondPost p where p.id > :afterId order by p.id asc")
+    List<Object[]> findImageUrlsAfter(Long afterId, Pageable pageable);
+}
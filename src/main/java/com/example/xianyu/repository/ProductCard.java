@@ -0,0 +1,27 @@
+package com.example.xianyu.repository;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * 商品列表卡片投影（不含 @Lob 描述字段，用于首页和列表页分页）
+ */
+@Getter
+@AllArgsConstructor
+public class ProductCard {
+
+    private Long id;
+
+    private String title;
+
+    private BigDecimal price;
+
+    private String category;
+
+    private String imageUrl;
+
+    private LocalDateTime createTime;
+}
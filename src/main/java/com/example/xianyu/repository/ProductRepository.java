@@ -1,8 +1,11 @@
 package com.example.xianyu.repository;
 
 import com.example.xianyu.entity.Product;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface ProductRepository extends JpaRepository<Product, Long> {
@@ -31,8 +34,58 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
      */
     List<Product> findByStatusAndImageUrlIsNotNull(Integer status);
 
-}
+    long countByStatus(Integer status);
 
+    /**
+     * 键集分页：第一页（按 createTime、id 倒序）
+     */
+    @Query("""
+        select new com.example.xianyu.repository.ProductCard(p.id, p.title, p.price, p.category, p.imageUrl, p.createTime)
+        from Product p
+        where p.status = :status
+        order by p.createTime desc, p.id desc
+    """)
+    List<ProductCard> findCardsByStatus(Integer status, Pageable pageable);
 
+    /**
+     * 键集分页：游标 (createTime, id) 之后的一页
+     */
+    @Query("""
+        select new com.example.xianyu.repository.ProductCard(p.id, p.title, p.price, p.category, p.imageUrl, p.createTime)
+        from Product p
+        where p.status = :status
+          and (p.createTime < :createTime or (p.createTime = :createTime and p.id < :id))
+        order by p.createTime desc, p.id desc
+    """)
+    List<ProductCard> findCardsByStatusAfter(Integer status, LocalDateTime createTime, Long id, Pageable pageable);
 
+    /**
+     * 键集分页：按分类的第一页
+     */
+    @Query("""
+        select new com.example.xianyu.repository.ProductCard(p.id, p.title, p.price, p.category, p.imageUrl, p.createTime)
+        from Product p
+        where p.status = :status and p.category = :category
+        order by p.createTime desc, p.id desc
+    """)
+    List<ProductCard> findCardsByCategoryAndStatus(String category, Integer status, Pageable pageable);
 
+    /**
+     * 键集分页：按分类，游标 (createTime, id) 之后的一页
+     */
+    @Query("""
+        select new com.example.xianyu.repository.ProductCard(p.id, p.title, p.price, p.category, p.imageUrl, p.createTime)
+        from Product p
+        where p.status = :status and p.category = :category
+          and (p.createTime < :createTime or (p.createTime = :createTime and p.id < :id))
+        order by p.createTime desc, p.id desc
+    """)
+    List<ProductCard> findCardsByCategoryAndStatusAfter(String category, Integer status,
+                                                        LocalDateTime createTime, Long id, Pageable pageable);
+
+    /**
+     * 上传文件回收：按ID键集扫描商品图片地址，返回 (id, imageUrl)
+     */
+    @Query("select p.id, p.imageUrl from Product p where p.id > :afterId order by p.id asc")
+    List<Object[]> findImageUrlsAfter(Long afterId, Pageable pageable);
+}
@@ -0,0 +1,46 @@
+package com.example.xianyu.repository;
+
+import com.example.xianyu.entity.StoredFile;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+public interface StoredFileRepository extends JpaRepository<StoredFile, Long> {
+
+    Optional<StoredFile> findByHash(String hash);
+
+    /**
+     * 新文件写入一行（引用数 1），已存在时引用数加一
+     */
+    @Modifying
+    @Query(value = """
+        insert into stored_file (hash, url, size, ref_count, create_time)
+        values (:hash, :url, :size, 1, :time)
+        on duplicate key update ref_count = ref_count + 1
+        """, nativeQuery = true)
+    int acquire(String hash, String url, long size, LocalDateTime time);
+
+    /**
+     * 引用数减一（不会减到负数）
+     */
+    @Modifying
+    @Query("update StoredFile f set f.refCount = f.refCount - 1 where f.hash = :hash and f.refCount > 0")
+    int release(String hash);
+
+    /**
+     * 引用数为 0 时删除记录，返回删除的行数（1 表示文件可以删除）
+     */
+    @Modifying
+    @Query("delete from StoredFile f where f.hash = :hash and f.refCount = 0")
+    int deleteIfUnreferenced(String hash);
+
+    /**
+     * 回收孤儿文件时删除记录（不论引用数：没有任何商品、动态、头像引用时引用数已不可信）
+     */
+    @Modifying
+    @Query("delete from StoredFile f where f.hash = :hash")
+    int purge(String hash);
+}
@@ -1,13 +1,20 @@
 package com.example.xianyu.repository;
 
 import com.example.xianyu.entity.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
 
     Optional<User> findByUsername(String username);
-}
-
 
+    /**
+     * 上传文件回收：按ID键集扫描用户头像，返回 (id, avatar)
+     */
+    @Query("select u.id, u.avatar from User u where u.id > :afterId order by u.id asc")
+    List<Object[]> findAvatarsAfter(Long afterId, Pageable pageable);
+}
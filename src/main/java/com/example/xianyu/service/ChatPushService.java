@@ -0,0 +1,116 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.entity.Message;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 聊天消息实时推送（WebSocket，进程内转发）
+ * 按用户ID登记在线连接；消息落库后推送给收件人和发送人的所有连接（发送人的其他标签页也能看到），
+ * 对方不在线时不做任何事，消息已经保存，打开聊天页时从数据库加载
+ */
+@Component
+public class ChatPushService {
+
+    /**
+     * 单个连接发送缓冲超时时间与上限，超过说明客户端读得太慢，直接断开
+     */
+    private static final int SEND_TIME_LIMIT_MILLIS = 5000;
+    private static final int BUFFER_SIZE_LIMIT = 64 * 1024;
+
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 用户ID -> 该用户的在线连接
+     */
+    private final Map<Long, Set<WebSocketSession>> sessions = new ConcurrentHashMap<>();
+
+    public ChatPushService(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 登记连接；返回的连接包装了发送缓冲，可以被多个线程同时发送
+     */
+    public WebSocketSession register(Long userId, WebSocketSession session) {
+        WebSocketSession concurrent = new ConcurrentWebSocketSessionDecorator(session, SEND_TIME_LIMIT_MILLIS, BUFFER_SIZE_LIMIT);
+        sessions.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(concurrent);
+        return concurrent;
+    }
+
+    public void unregister(Long userId, WebSocketSession session) {
+        sessions.computeIfPresent(userId, (k, set) -> {
+            set.remove(session);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * 推送一条聊天消息给会话双方
+     */
+    public void deliver(Message message) {
+        if (sessions.isEmpty()) {
+            return;
+        }
+        TextMessage frame;
+        try {
+            frame = new TextMessage(objectMapper.writeValueAsString(ChatEvent.of(message)));
+        } catch (JsonProcessingException e) {
+            System.err.println("聊天消息序列化失败: " + e.getMessage());
+            return;
+        }
+        send(message.getUserId(), frame);
+        if (message.getSenderId() != null && !message.getSenderId().equals(message.getUserId())) {
+            send(message.getSenderId(), frame);
+        }
+    }
+
+    /**
+     * 向单个连接发送一个对象（如错误提示）
+     */
+    public void sendTo(WebSocketSession session, Object payload) {
+        try {
+            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(payload)));
+        } catch (IOException | IllegalStateException | SessionLimitExceededException e) {
+            // 连接已断开，由 afterConnectionClosed 清理
+        }
+    }
+
+    private void send(Long userId, TextMessage frame) {
+        Set<WebSocketSession> targets = sessions.get(userId);
+        if (targets == null) {
+            return;
+        }
+        for (WebSocketSession session : targets) {
+            try {
+                session.sendMessage(frame);
+            } catch (IOException | IllegalStateException | SessionLimitExceededException e) {
+                // 发送失败或缓冲超限（装饰器已关闭该连接）
+                unregister(userId, session);
+            }
+        }
+    }
+
+    /**
+     * 推送给客户端的聊天消息
+     */
+    public record ChatEvent(String type, Long id, Long productId, Long senderId, Long toUserId,
+                            String senderName, String content, LocalDateTime createTime) {
+
+        static ChatEvent of(Message m) {
+            return new ChatEvent("chat", m.getId(), m.getProductId(), m.getSenderId(), m.getUserId(),
+                    m.getSenderName(), m.getContent(), m.getCreateTime());
+        }
+    }
+}
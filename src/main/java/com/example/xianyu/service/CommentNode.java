@@ -0,0 +1,45 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.entity.PondComment;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 评论树节点（顶级评论及其回复）
+ */
+@Data
+public class CommentNode {
+
+    private Long id;
+    private Long parentId;
+    private Long userId;
+    private String username;
+    private String userAvatar;
+    private String content;
+    private LocalDateTime createTime;
+
+    /**
+     * 已加载的回复（按时间正序）
+     */
+    private List<CommentNode> replies = new ArrayList<>();
+
+    /**
+     * 还有更多回复时，加载下一页回复的游标；否则为 null
+     */
+    private String moreRepliesCursor;
+
+    public static CommentNode of(PondComment c) {
+        CommentNode node = new CommentNode();
+        node.id = c.getId();
+        node.parentId = c.getParentId();
+        node.userId = c.getUserId();
+        node.username = c.getUsername();
+        node.userAvatar = c.getUserAvatar();
+        node.content = c.getContent();
+        node.createTime = c.getCreateTime();
+        return node;
+    }
+}
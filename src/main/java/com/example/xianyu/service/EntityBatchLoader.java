@@ -0,0 +1,34 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.common.BatchLoader;
+import com.example.xianyu.entity.Product;
+import com.example.xianyu.entity.User;
+import com.example.xianyu.repository.ProductRepository;
+import com.example.xianyu.repository.UserRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.annotation.RequestScope;
+
+/**
+ * 请求内的实体批量加载器：列表页展示时需要关联的商品、用户，
+ * 每种实体只用一次 findAllById 查询，避免逐条 findById 的 N+1 查询
+ */
+@Component
+@RequestScope
+public class EntityBatchLoader {
+
+    private final BatchLoader<Product> products;
+    private final BatchLoader<User> users;
+
+    public EntityBatchLoader(ProductRepository productRepository, UserRepository userRepository) {
+        this.products = new BatchLoader<>(productRepository::findAllById, Product::getId);
+        this.users = new BatchLoader<>(userRepository::findAllById, User::getId);
+    }
+
+    public BatchLoader<Product> products() {
+        return products;
+    }
+
+    public BatchLoader<User> users() {
+        return users;
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.entity.Product;
+import com.example.xianyu.repository.ProductRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * 首页推荐引擎
+ * 推荐策略（与原算法一致）：
+ * 1. 时间新鲜度 50%：指数衰减，3 天内分数较高
+ * 2. 价格合理性 20%：价格在中等偏下区间得分更高
+ * 3. 描述完整性 15%：描述长度在 50-200 字之间得分最高
+ * 4. 图片数量 10%：最多 3 张图给满分
+ * 5. 随机性 5%：增加多样性
+ *
+ * 实现方式：
+ * - 内存中保存所有候选商品（在售且有有效图片）的静态特征，由商品发布/编辑/下架/售出/删除事件增量维护
+ * - 以“基准时刻”计算基础分，维护一个容量为 K 的小顶堆保存基础分最高的候选
+ * - 每次请求只对堆中 K 个候选计算实时时间衰减和随机扰动，取前 8 个，单次请求复杂度 O(K)
+ * - 定时重新确定基准时刻和价格区间并重建堆，修正时间推移带来的排序偏差
+ */
+@Component
+public class HomeRecommendEngine {
+
+    /**
+     * 首页轮播展示数量
+     */
+    public static final int SHOW_COUNT = 8;
+
+    /**
+     * 堆中保留的候选数量
+     */
+    static final int CANDIDATE_COUNT = 64;
+
+    /**
+     * 时间衰减常数：6 天（3 天 * 2）
+     */
+    static final double DECAY_MILLIS = 2 * 3L * 24 * 60 * 60 * 1000;
+
+    private static final Pattern IMAGE_EXTENSION = Pattern.compile(".*\\.(jpg|jpeg|png|gif|webp)(,.*)?");
+
+    private static final Comparator<Candidate> BY_BASE_SCORE =
+            Comparator.comparingDouble((Candidate c) -> c.baseScore).thenComparingLong(c -> c.id);
+
+    private final ProductRepository productRepository;
+
+    /**
+     * 全部候选商品的静态特征
+     */
+    private final Map<Long, Candidate> candidates = new HashMap<>();
+
+    /**
+     * 基础分最高的 K 个候选（小顶堆，堆顶为其中分数最低者）
+     */
+    private final PriorityQueue<Candidate> topK = new PriorityQueue<>(CANDIDATE_COUNT + 1, BY_BASE_SCORE);
+
+    private long referenceTime = System.currentTimeMillis();
+    private double minPrice;
+    private double priceRange;
+
+    public HomeRecommendEngine(ProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    /**
+     * 应用启动后从数据库加载候选商品
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        List<Product> products = productRepository.findByStatusAndImageUrlIsNotNull(0);
+        synchronized (this) {
+            candidates.clear();
+            for (Product p : products) {
+                Candidate c = toCandidate(p);
+                if (c != null) {
+                    candidates.put(c.id, c);
+                }
+            }
+            rebuild();
+        }
+    }
+
+    /**
+     * 定时重建：更新基准时刻和价格区间，只基于内存中的特征，不访问数据库
+     */
+    @Scheduled(fixedDelay = 10 * 60 * 1000, initialDelay = 10 * 60 * 1000)
+    public synchronized void rebuild() {
+        referenceTime = System.currentTimeMillis();
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (Candidate c : candidates.values()) {
+            min = Math.min(min, c.price);
+            max = Math.max(max, c.price);
+        }
+        minPrice = candidates.isEmpty() ? 0 : min;
+        priceRange = candidates.isEmpty() ? 0 : max - min;
+        for (Candidate c : candidates.values()) {
+            c.baseScore = baseScore(c);
+        }
+        refill();
+    }
+
+    /**
+     * 商品发布或编辑后调用；不再满足推荐条件的商品会被移除
+     */
+    public synchronized void onProductChanged(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        removeInternal(product.getId());
+        Candidate c = toCandidate(product);
+        if (c == null) {
+            return;
+        }
+        c.baseScore = baseScore(c);
+        candidates.put(c.id, c);
+        if (topK.size() < CANDIDATE_COUNT && candidates.size() > topK.size() + 1) {
+            // 堆未满且堆外还有其他候选（堆内商品被移除过）：重新选出前 K 个，新商品分数再低也可能属于其中
+            refill();
+        } else {
+            offer(c);
+        }
+    }
+
+    /**
+     * 商品下架、售出或删除后调用
+     */
+    public synchronized void onProductRemoved(Long productId) {
+        if (productId == null) {
+            return;
+        }
+        removeInternal(productId);
+    }
+
+    /**
+     * 返回推荐商品ID（按最终得分降序）
+     */
+    public List<Long> recommend() {
+        Candidate[] snapshot;
+        synchronized (this) {
+            snapshot = topK.toArray(new Candidate[0]);
+        }
+        long now = System.currentTimeMillis();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // 每个候选本次请求只计算一次最终分，保证排序比较器前后一致
+        double[] scores = new double[snapshot.length];
+        Integer[] order = new Integer[snapshot.length];
+        for (int i = 0; i < snapshot.length; i++) {
+            Candidate c = snapshot[i];
+            scores[i] = timeScore(c.createMillis, now) * 0.5 + c.staticScore + random.nextDouble() * 0.05;
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+        List<Long> ids = new ArrayList<>(SHOW_COUNT);
+        for (int i = 0; i < order.length && i < SHOW_COUNT; i++) {
+            ids.add(snapshot[order[i]].id);
+        }
+        return ids;
+    }
+
+    private void offer(Candidate c) {
+        if (topK.size() < CANDIDATE_COUNT) {
+            topK.add(c);
+        } else if (BY_BASE_SCORE.compare(c, topK.peek()) > 0) {
+            topK.poll();
+            topK.add(c);
+        }
+    }
+
+    private void removeInternal(Long id) {
+        Candidate old = candidates.remove(id);
+        if (old == null) {
+            return;
+        }
+        if (topK.remove(old) && candidates.size() > topK.size()) {
+            // 堆内候选被移除后从内存特征中补齐，保证堆中始终是基础分最高的 min(K, 候选数) 个
+            refill();
+        }
+    }
+
+    /**
+     * 从全部候选中重新选出基础分最高的 K 个
+     */
+    private void refill() {
+        topK.clear();
+        for (Candidate c : candidates.values()) {
+            offer(c);
+        }
+    }
+
+    /**
+     * 以基准时刻计算的基础分（不含随机部分）
+     */
+    private double baseScore(Candidate c) {
+        c.staticScore = staticScore(c.price, minPrice, priceRange, c.descScore, c.imageScore);
+        return timeScore(c.createMillis, referenceTime) * 0.5 + c.staticScore;
+    }
+
+    /**
+     * 时间新鲜度：越新发布的商品分数越高，使用指数衰减
+     */
+    static double timeScore(long createMillis, long now) {
+        return Math.exp(-(double) (now - createMillis) / DECAY_MILLIS);
+    }
+
+    /**
+     * 与时间无关的得分部分：价格 20% + 描述 15% + 图片 10%
+     */
+    static double staticScore(double price, double minPrice, double priceRange, double descScore, double imageScore) {
+        double score = 0.0;
+        if (priceRange > 0) {
+            double priceRatio = (price - minPrice) / priceRange;
+            // 价格在0.2-0.6区间得分最高（中等偏下价格）
+            double priceScore = 1.0 - Math.abs(priceRatio - 0.4) * 2;
+            score += Math.max(0, Math.min(1, priceScore)) * 0.2;
+        }
+        return score + descScore * 0.15 + imageScore * 0.1;
+    }
+
+    /**
+     * 描述完整性：描述长度在50-200字之间得分最高
+     */
+    static double descScore(String description) {
+        if (description == null || description.trim().isEmpty()) {
+            return 0;
+        }
+        int descLength = description.length();
+        if (descLength < 50) {
+            return descLength / 50.0;
+        } else if (descLength > 200) {
+            return Math.max(0.8, 1.0 - (descLength - 200) / 500.0);
+        }
+        return 1.0;
+    }
+
+    /**
+     * 图片数量：图片数量越多分数越高，最多3张图给满分
+     */
+    static double imageScore(String imageUrl) {
+        int imageCount = 1;
+        for (int i = imageUrl.indexOf(','); i >= 0; i = imageUrl.indexOf(',', i + 1)) {
+            imageCount++;
+        }
+        return Math.min(1.0, imageCount / 3.0);
+    }
+
+    /**
+     * 是否为有效图片：必须包含 /uploads/ 路径，或者包含图片文件扩展名
+     */
+    static boolean hasValidImage(String imageUrl) {
+        if (imageUrl == null || imageUrl.trim().isEmpty()) {
+            return false;
+        }
+        String trimmed = imageUrl.trim();
+        return trimmed.contains("/uploads/") || IMAGE_EXTENSION.matcher(trimmed).matches();
+    }
+
+    /**
+     * 提取商品的静态特征，不满足推荐条件时返回 null
+     */
+    static Candidate toCandidate(Product p) {
+        if (p.getStatus() == null || p.getStatus() != 0 || !hasValidImage(p.getImageUrl())) {
+            return null;
+        }
+        Candidate c = new Candidate();
+        c.id = p.getId();
+        // 没有发布时间的商品不计时间分
+        c.createMillis = p.getCreateTime() != null
+                ? p.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : Long.MIN_VALUE / 2;
+        c.price = p.getPrice() != null ? p.getPrice().doubleValue() : 0;
+        c.descScore = descScore(p.getDescription());
+        c.imageScore = imageScore(p.getImageUrl());
+        return c;
+    }
+
+    static final class Candidate {
+        private long id;
+        private long createMillis;
+        private double price;
+        private double descScore;
+        private double imageScore;
+        private double staticScore;
+        private double baseScore;
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.xianyu.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 热点图片缓存（堆外内存）
+ * - 缓存 /uploads 下访问最多的图片（缩略图、首页轮播图等），内容放在 direct ByteBuffer 中，命中时不读文件、不占用堆
+ * - 总字节数不超过 upload.cache.max-bytes，超过 upload.cache.max-entry-bytes 的单个文件不缓存
+ * - 淘汰按 LRU；缓存已满时，新图片的访问频率（Count-Min Sketch 估计）必须高于要被淘汰的图片才会放入，
+ *   偶尔访问一次的大图不会把热点图片挤出去
+ * - 文件删除或重新生成时由调用方失效；加载期间这张图片被失效过时结果不放入缓存（按图片判断，其他图片的失效不影响）
+ */
+@Component
+public class HotImageCache {
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+
+    /**
+     * 访问地址（/uploads/...）-> 缓存项，访问顺序（最久未访问的在前）
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final FrequencySketch sketch;
+
+    private long usedBytes;
+
+    /**
+     * 正在加载的图片：访问地址 -> 加载序号。失效时移除，放入时序号不一致则丢弃（加载期间文件可能已被删除或重写）
+     */
+    private final Map<String, Long> loading = new HashMap<>();
+
+    private long loadSequence;
+
+    private long hits;
+    private long misses;
+    private long admissions;
+    private long rejections;
+    private long evictions;
+    private long invalidations;
+
+    public HotImageCache(@Value("${upload.cache.max-bytes:67108864}") long maxBytes,
+                         @Value("${upload.cache.max-entry-bytes:2097152}") long maxEntryBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.maxEntryBytes = Math.min(Math.max(0, maxEntryBytes), Integer.MAX_VALUE);
+        // 按平均 16KB 一张估计缓存能容纳的图片数，草图宽度取其数倍
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, this.maxBytes / 16384 * 4)));
+    }
+
+    /**
+     * 查询缓存并记录一次访问
+     */
+    public synchronized Entry get(String url) {
+        sketch.increment(url);
+        Entry entry = entries.get(url);
+        if (entry != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return entry;
+    }
+
+    /**
+     * 未命中后是否值得把文件读入缓存（预判，最终以 put 为准）
+     */
+    public synchronized boolean shouldLoad(String url, long size) {
+        if (size <= 0 || size > maxEntryBytes || size > maxBytes) {
+            return false;
+        }
+        if (usedBytes + size <= maxBytes) {
+            return true;
+        }
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        return !eldest.hasNext() || sketch.frequency(url) > sketch.frequency(eldest.next().getKey());
+    }
+
+    /**
+     * 读取文件前调用，返回的序号传给 put 或 abortLoad
+     */
+    public synchronized long beginLoad(String url) {
+        long token = ++loadSequence;
+        loading.put(url, token);
+        return token;
+    }
+
+    /**
+     * 读取失败、不再放入缓存时调用
+     */
+    public synchronized void abortLoad(String url, long token) {
+        loading.remove(url, token);
+    }
+
+    /**
+     * 放入缓存：需要淘汰的图片中只要有一张访问频率不低于新图片，就不放入。
+     * token 为读取文件前 beginLoad 的返回值；读取期间这张图片被失效过则不放入
+     */
+    public synchronized boolean put(String url, Entry entry, long token) {
+        long size = entry.length();
+        if (!loading.remove(url, token) || entries.containsKey(url) || size > maxEntryBytes || size > maxBytes) {
+            return false;
+        }
+        List<String> victims = new ArrayList<>();
+        long freed = 0;
+        int frequency = sketch.frequency(url);
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (usedBytes - freed + size <= maxBytes) {
+                break;
+            }
+            if (sketch.frequency(e.getKey()) >= frequency) {
+                rejections++;
+                return false;
+            }
+            victims.add(e.getKey());
+            freed += e.getValue().length();
+        }
+        for (String victim : victims) {
+            entries.remove(victim);
+            evictions++;
+        }
+        usedBytes -= freed;
+        entries.put(url, entry);
+        usedBytes += size;
+        admissions++;
+        return true;
+    }
+
+    /**
+     * 文件被删除或重写时调用
+     */
+    public synchronized void invalidate(String url) {
+        loading.remove(url);
+        Entry removed = entries.remove(url);
+        if (removed != null) {
+            usedBytes -= removed.length();
+            invalidations++;
+        }
+    }
+
+    /**
+     * 命中率等统计
+     */
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long lookups = hits + misses;
+        stats.put("entries", entries.size());
+        stats.put("bytes", usedBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", lookups == 0 ? 0.0 : (double) hits / lookups);
+        stats.put("admissions", admissions);
+        stats.put("rejections", rejections);
+        stats.put("evictions", evictions);
+        stats.put("invalidations", invalidations);
+        return stats;
+    }
+
+    /**
+     * 缓存的文件内容及响应头需要的元数据；content 为只读的 direct buffer
+     */
+    public record Entry(ByteBuffer content, String etag, boolean immutable, long lastModified, String contentType) {
+
+        public long length() {
+            return content.capacity();
+        }
+
+        /**
+         * [start, end) 区间的独立视图，可并发读取
+         */
+        public ByteBuffer slice(long start, long end) {
+            return content.slice((int) start, (int) (end - start));
+        }
+    }
+
+    /**
+     * 访问频率估计（Count-Min Sketch，4 行计数器，每个计数器上限 15）；
+     * 累计访问次数达到宽度的 10 倍时所有计数减半，旧的热点会逐渐冷却
+     */
+    private static final class FrequencySketch {
+
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[] counters;
+        private final int mask;
+        private final int resetThreshold;
+        private int additions;
+
+        FrequencySketch(int width) {
+            int size = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+            this.counters = new byte[size * DEPTH];
+            this.mask = size - 1;
+            this.resetThreshold = size * 10;
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int row = 0; row < DEPTH; row++) {
+                int index = indexOf(hash, row);
+                if (counters[index] < MAX_COUNT) {
+                    counters[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= resetThreshold) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] = (byte) (counters[i] >>> 1);
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int min = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, counters[indexOf(hash, row)]);
+            }
+            return min;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = hash * SEEDS[row];
+            return row * (mask + 1) + ((h ^ (h >>> 16)) & mask);
+        }
+
+        private static int spread(int hash) {
+            int h = hash * 0x45D9F3B;
+            return h ^ (h >>> 16);
+        }
+    }
+}
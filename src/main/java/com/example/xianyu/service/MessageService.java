@@ -1,24 +1,77 @@
 package com.example.xianyu.service;
 
+import com.example.xianyu.common.CursorPage;
+import com.example.xianyu.common.TimeIdCursor;
+import com.example.xianyu.entity.Conversation;
 import com.example.xianyu.entity.Message;
+import com.example.xianyu.repository.ConversationRepository;
 import com.example.xianyu.repository.MessageRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 
 @Service
 public class MessageService {
 
+    /**
+     * 消息中心每页会话数
+     */
+    public static final int INBOX_PAGE_SIZE = 20;
+    public static final int MAX_INBOX_PAGE_SIZE = 50;
+
+    /**
+     * 聊天页每页消息数（首屏和向前翻页），以及一次增量轮询最多返回的消息数
+     */
+    public static final int THREAD_PAGE_SIZE = 50;
+    public static final int THREAD_DELTA_LIMIT = 100;
+
+    /**
+     * 启动时回填会话摘要的批大小
+     */
+    private static final int BACKFILL_BATCH = 1000;
+
     private final MessageRepository messageRepository;
+    private final ConversationRepository conversationRepository;
+    private final UnreadPushService unreadPushService;
+    private final UnreadCounterStore unreadCounterStore;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * 鱼塘评论通知合并窗口（分钟），0 表示不合并
+     */
+    @Value("${message.pond-coalesce-minutes:10}")
+    private long pondCoalesceMinutes;
 
-    public MessageService(MessageRepository messageRepository) {
+    public MessageService(MessageRepository messageRepository, ConversationRepository conversationRepository,
+                          UnreadPushService unreadPushService, UnreadCounterStore unreadCounterStore,
+                          PlatformTransactionManager transactionManager) {
         this.messageRepository = messageRepository;
+        this.conversationRepository = conversationRepository;
+        this.unreadPushService = unreadPushService;
+        this.unreadCounterStore = unreadCounterStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     /**
      * 发送系统消息
      */
+    @Transactional
     public Message sendSystemMessage(Long userId, String title, String content, String type) {
         Message message = new Message();
         message.setUserId(userId);
@@ -26,12 +79,16 @@ public class MessageService {
         message.setContent(content);
         message.setType(type != null ? type : "system");
         message.setReadFlag(false);
-        return messageRepository.save(message);
+        Message saved = messageRepository.save(message);
+        recordConversation(saved);
+        unreadChanged(saved.getUserId(), 1);
+        return saved;
     }
 
     /**
      * 发送买家-卖家聊天消息
      */
+    @Transactional
     public Message sendChatMessage(Long senderId, String senderName, Long targetUserId,
                                    Long productId, String productTitle, String content) {
         Message message = new Message();
@@ -43,124 +100,430 @@ public class MessageService {
         message.setContent(content);
         message.setType("chat");
         message.setReadFlag(false);
-        return messageRepository.save(message);
+        Message saved = messageRepository.save(message);
+        recordConversation(saved);
+        unreadChanged(saved.getUserId(), 1);
+        return saved;
     }
 
     public List<Message> listByUser(Long userId) {
         return messageRepository.findByUserIdOrderByCreateTimeDesc(userId);
     }
 
+    /**
+     * 消息中心会话列表（按最后一条消息时间倒序的游标分页）
+     */
+    public CursorPage<Conversation> pageInbox(Long userId, String cursor, int size) {
+        int pageSize = size <= 0 ? INBOX_PAGE_SIZE : Math.min(size, MAX_INBOX_PAGE_SIZE);
+        TimeIdCursor after = TimeIdCursor.decode(cursor);
+        List<Conversation> rows = after == null
+                ? conversationRepository.findInbox(userId, pageSize + 1)
+                : conversationRepository.findInboxAfter(userId, after.getTime(), after.getId(), pageSize + 1);
+        String nextCursor = null;
+        if (rows.size() > pageSize) {
+            rows = new ArrayList<>(rows.subList(0, pageSize));
+            Conversation last = rows.get(pageSize - 1);
+            nextCursor = new TimeIdCursor(last.getLastTime(), last.getId()).encode();
+        }
+        return new CursorPage<>(rows, nextCursor);
+    }
+
     public long countUnread(Long userId) {
-        Long count = messageRepository.countByUserIdAndReadFlagFalse(userId);
-        return count == null ? 0 : count;
+        return unreadSnapshot(userId).count();
     }
 
+    /**
+     * 未读数及其版本号（版本号在该用户收到消息或标记已读时变化，可用作 ETag）
+     */
+    public UnreadCounterStore.Snapshot unreadSnapshot(Long userId) {
+        return unreadCounterStore.get(userId, id -> {
+            Long count = messageRepository.countByUserIdAndReadFlagFalse(id);
+            return count == null ? 0 : count;
+        });
+    }
+
+    @Transactional
     public void markRead(Long id, Long userId) {
         Optional<Message> optional = messageRepository.findById(id);
         if (optional.isPresent()) {
             Message m = optional.get();
-            if (m.getUserId().equals(userId) && !Boolean.TRUE.equals(m.getReadFlag())) {
-                m.setReadFlag(true);
-                messageRepository.save(m);
+            // 条件更新返回 1 才算本次标记成功，并发重复标记时不会重复扣减未读数
+            if (m.getUserId().equals(userId) && !Boolean.TRUE.equals(m.getReadFlag())
+                    && messageRepository.markReadById(id, userId) > 0) {
+                ConversationKey key = ConversationKey.of(m);
+                if (key.isUserA(userId)) {
+                    conversationRepository.decrementUnreadA(key.userA(), key.userB(), key.kind(), key.refId());
+                } else {
+                    conversationRepository.decrementUnreadB(key.userA(), key.userB(), key.kind(), key.refId());
+                }
+                unreadChanged(userId, -1);
             }
         }
     }
 
+    @Transactional
     public void markAllRead(Long userId) {
-        List<Message> list = messageRepository.findByUserIdOrderByCreateTimeDesc(userId);
-        boolean changed = false;
-        for (Message m : list) {
-            if (!Boolean.TRUE.equals(m.getReadFlag())) {
-                m.setReadFlag(true);
-                changed = true;
-            }
+        if (!messageRepository.existsByUserIdAndReadFlagFalse(userId)) {
+            return;
         }
-        if (changed) {
-            messageRepository.saveAll(list);
+        int updated = messageRepository.markAllReadByUserId(userId);
+        if (updated > 0) {
+            conversationRepository.clearAllUnreadA(userId);
+            conversationRepository.clearAllUnreadB(userId);
+            unreadChanged(userId, -updated);
         }
     }
 
     /**
-     * 会话消息（双向）
+     * 会话中比 sinceId 新的消息（按ID正序，最多 limit 条）
      */
-    public List<Message> listThread(Long productId, Long userId, Long otherUserId) {
-        return messageRepository.findThread(productId, userId, otherUserId);
+    public List<Message> listThreadAfter(Long productId, Long userId, Long otherUserId, long sinceId, int limit) {
+        return messageRepository.findThreadAfter(productId, userId, otherUserId, sinceId, PageRequest.of(0, limit));
+    }
+
+    /**
+     * 会话中比 beforeId 早的一页消息（beforeId 为空时取最新一页），按ID正序返回；
+     * 还有更早的消息时 nextCursor 为本页最早一条消息的ID
+     */
+    public CursorPage<Message> pageThreadBefore(Long productId, Long userId, Long otherUserId, Long beforeId, int size) {
+        long before = beforeId != null ? beforeId : Long.MAX_VALUE;
+        List<Message> rows = new ArrayList<>(messageRepository.findThreadBefore(productId, userId, otherUserId,
+                before, PageRequest.of(0, size + 1)));
+        String nextCursor = null;
+        if (rows.size() > size) {
+            rows = new ArrayList<>(rows.subList(0, size));
+            nextCursor = String.valueOf(rows.get(size - 1).getId());
+        }
+        Collections.reverse(rows);
+        return new CursorPage<>(rows, nextCursor);
     }
 
     /**
      * 标记某个会话中"我收到的"消息为已读
      */
+    @Transactional
     public void markThreadRead(Long productId, Long me, Long other) {
-        List<Message> unread = messageRepository.findUnreadInThread(productId, me, other);
-        if (!unread.isEmpty()) {
-            unread.forEach(m -> m.setReadFlag(true));
-            messageRepository.saveAll(unread);
+        // 聊天页每次轮询都会调用，没有未读时只做一次索引存在性检查，不加写锁
+        if (!messageRepository.existsByUserIdAndReadFlagFalseAndProductIdAndSenderId(me, productId, other)) {
+            return;
+        }
+        int updated = messageRepository.markThreadRead(productId, me, other);
+        if (updated > 0) {
+            ConversationKey key = ConversationKey.of(me, other, Conversation.KIND_PRODUCT, productId);
+            if (key.isUserA(me)) {
+                conversationRepository.clearUnreadA(key.userA(), key.userB(), key.kind(), key.refId());
+            } else {
+                conversationRepository.clearUnreadB(key.userA(), key.userB(), key.kind(), key.refId());
+            }
+            unreadChanged(me, -updated);
         }
     }
 
     /**
      * 发送鱼塘帖子评论消息
+     * 帖子发布者在时间窗口内还有这个帖子的未读评论通知时，合并到那一条里（"N 条新评论"），不再新增一行
      */
+    @Transactional
     public Message sendPondCommentMessage(Long senderId, String senderName, Long targetUserId,
                                          Long postId, String postContent, String commentContent) {
+        // 截取帖子内容前30个字符作为标题
+        String title = postContent != null && postContent.length() > 30 
+            ? postContent.substring(0, 30) + "..." 
+            : (postContent != null ? postContent : "鱼塘动态");
+        if (pondCoalesceMinutes > 0) {
+            Optional<Message> pending = messageRepository
+                    .findFirstByUserIdAndReadFlagFalseAndPostIdAndTypeAndCreateTimeAfterOrderByIdDesc(
+                            targetUserId, postId, "pond", LocalDateTime.now().minusMinutes(pondCoalesceMinutes));
+            if (pending.isPresent()) {
+                return mergePondComment(pending.get(), senderName, title, commentContent);
+            }
+        }
         Message message = new Message();
         message.setUserId(targetUserId);
         message.setSenderId(senderId);
         message.setSenderName(senderName);
         message.setPostId(postId);
-        // 截取帖子内容前30个字符作为标题
-        String title = postContent != null && postContent.length() > 30 
-            ? postContent.substring(0, 30) + "..." 
-            : (postContent != null ? postContent : "鱼塘动态");
         message.setTitle("评论了你的动态：" + title);
         message.setContent(commentContent);
         message.setType("pond");
         message.setReadFlag(false);
-        return messageRepository.save(message);
+        Message saved = messageRepository.save(message);
+        recordConversation(saved);
+        unreadChanged(saved.getUserId(), 1);
+        return saved;
+    }
+
+    /**
+     * 把一条新评论合并进已有的未读通知：计数加一，预览换成最新的评论（带上评论人昵称）；
+     * 消息仍归属最早那位评论人的会话，发送人ID和昵称都保持不变，未读数不变，只刷新会话摘要
+     */
+    private Message mergePondComment(Message pending, String senderName, String title, String commentContent) {
+        int count = (pending.getMergedCount() != null ? pending.getMergedCount() : 1) + 1;
+        pending.setMergedCount(count);
+        pending.setTitle(truncate(count + " 条新评论：" + title, 100));
+        String preview = senderName != null ? senderName + "：" + commentContent : commentContent;
+        pending.setContent(preview);
+        Message saved = messageRepository.save(pending);
+        ConversationKey key = ConversationKey.of(saved);
+        conversationRepository.refreshLastMessage(key.userA(), key.userB(), key.kind(), key.refId(), saved.getId(),
+                truncate(saved.getSenderName(), 50), saved.getTitle(), truncate(preview, 255), LocalDateTime.now());
+        // 会话预览变了，提交后更新双方的版本号（消息中心 ETag）
+        unreadChanged(saved.getUserId(), 0, false);
+        unreadChanged(saved.getSenderId(), 0, false);
+        return saved;
     }
 
     /**
      * 标记某个帖子的所有未读消息为已读
      */
+    @Transactional
     public void markPostMessagesRead(Long postId, Long userId) {
-        List<Message> unread = messageRepository.findUnreadByPostId(postId, userId);
-        if (!unread.isEmpty()) {
-            unread.forEach(m -> m.setReadFlag(true));
-            messageRepository.saveAll(unread);
+        if (!messageRepository.existsByUserIdAndReadFlagFalseAndPostIdAndType(userId, postId, "pond")) {
+            return;
+        }
+        int updated = messageRepository.markPostRead(postId, userId);
+        if (updated > 0) {
+            conversationRepository.clearUnreadByRef(userId, Conversation.KIND_POND, postId);
+            unreadChanged(userId, -updated);
         }
     }
 
     /**
      * 删除消息线程（删除该线程的所有消息）
+     * 每种情况都是一条按索引定位的批量 DELETE，不把消息加载到内存
      */
+    @Transactional
     public void deleteThread(Long productId, Long postId, Long userId, Long otherUserId) {
+        int deleted = 0;
         if (postId != null && otherUserId != null) {
-            // 删除鱼塘消息线程：删除该用户与该帖子相关的所有消息
-            List<Message> allMessages = messageRepository.findByUserIdOrderByCreateTimeDesc(userId);
-            List<Message> toDelete = allMessages.stream()
-                .filter(m -> m.getPostId() != null && m.getPostId().equals(postId) && 
-                    ((m.getUserId().equals(userId) && m.getSenderId() != null && m.getSenderId().equals(otherUserId)) ||
-                     (m.getSenderId() != null && m.getSenderId().equals(userId) && m.getUserId().equals(otherUserId))))
-                .toList();
-            if (!toDelete.isEmpty()) {
-                messageRepository.deleteAll(toDelete);
-            }
+            // 删除鱼塘消息线程：双方之间关于该帖子的所有消息（包括自己发出的）
+            deleted = messageRepository.deletePostThread(postId, userId, otherUserId);
+            ConversationKey key = ConversationKey.of(userId, otherUserId, Conversation.KIND_POND, postId);
+            conversationRepository.deleteByKey(key.userA(), key.userB(), key.kind(), key.refId());
         } else if (productId != null && otherUserId != null) {
             // 删除商品聊天消息线程
-            List<Message> threadMessages = messageRepository.findThread(productId, userId, otherUserId);
-            if (!threadMessages.isEmpty()) {
-                messageRepository.deleteAll(threadMessages);
-            }
+            deleted = messageRepository.deleteProductThread(productId, userId, otherUserId);
+            ConversationKey key = ConversationKey.of(userId, otherUserId, Conversation.KIND_PRODUCT, productId);
+            conversationRepository.deleteByKey(key.userA(), key.userB(), key.kind(), key.refId());
         } else if (postId != null) {
             // 删除整个帖子的所有消息（无otherUserId时）
-            List<Message> allMessages = messageRepository.findByUserIdOrderByCreateTimeDesc(userId);
-            List<Message> toDelete = allMessages.stream()
-                .filter(m -> m.getPostId() != null && m.getPostId().equals(postId))
-                .toList();
-            if (!toDelete.isEmpty()) {
-                messageRepository.deleteAll(toDelete);
+            deleted = messageRepository.deleteByPostIdAndUserId(postId, userId);
+            conversationRepository.deleteByRef(userId, Conversation.KIND_POND, postId);
+        }
+        if (deleted == 0) {
+            return;
+        }
+        // 删除的消息中可能有双方的未读消息，提交后重新从数据库加载
+        afterCommit(() -> {
+            unreadCounterStore.invalidate(userId);
+            if (otherUserId != null) {
+                unreadCounterStore.invalidate(otherUserId);
+                notifyUnread(otherUserId);
+            }
+            notifyUnread(userId);
+        });
+    }
+
+    /**
+     * 应用启动时，如果会话摘要表为空而消息表有数据，则按消息ID顺序分批扫描一次回填
+     * - 只查询摘要需要的列，不把消息实体放进持久化上下文，内存占用与消息表大小无关
+     * - 每批在独立的短事务中按会话汇总后 upsert（未读数累加、最后一条消息取ID较大者），中途失败时已提交的批次保留
+     * - 只回填启动时已有的消息；之后发送的消息由 recordConversation 写入
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillConversations() {
+        if (conversationRepository.count() > 0) {
+            return;
+        }
+        Long maxId = messageRepository.findMaxId();
+        if (maxId == null) {
+            return;
+        }
+        long lastId = 0;
+        while (lastId < maxId) {
+            long afterId = lastId;
+            Long batchLastId = transactionTemplate.execute(status -> backfillBatch(afterId, maxId));
+            if (batchLastId == null) {
+                break;
             }
+            lastId = batchLastId;
         }
     }
-}
 
+    /**
+     * 回填一批消息，返回本批最后一条消息的ID；没有更多消息时返回 null
+     */
+    private Long backfillBatch(long afterId, long maxId) {
+        List<Object[]> rows = messageRepository.findBackfillRows(afterId, maxId, PageRequest.of(0, BACKFILL_BATCH));
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Map<ConversationKey, Conversation> conversations = new HashMap<>();
+        for (Object[] row : rows) {
+            Message m = backfillMessage(row);
+            ConversationKey key = ConversationKey.of(m);
+            Conversation c = conversations.computeIfAbsent(key, ConversationKey::newConversation);
+            // 按ID升序扫描，后出现的消息就是最后一条
+            applyLastMessage(c, m);
+            if (!Boolean.TRUE.equals(m.getReadFlag())) {
+                if (key.isUserA(m.getUserId())) {
+                    c.setUnreadA(c.getUnreadA() + 1);
+                } else {
+                    c.setUnreadB(c.getUnreadB() + 1);
+                }
+            }
+        }
+        for (Conversation c : conversations.values()) {
+            conversationRepository.upsertOnMessage(c.getUserA(), c.getUserB(), c.getKind(), c.getRefId(),
+                    c.getLastMessageId(), c.getLastSenderId(), c.getLastSenderName(), c.getLastTitle(),
+                    c.getLastContent(), c.getLastType(), c.getLastTime(), c.getUnreadA(), c.getUnreadB());
+        }
+        return (Long) rows.get(rows.size() - 1)[0];
+    }
+
+    /**
+     * 投影行转为（不受管理的）消息对象，复用会话键和摘要的计算
+     */
+    private static Message backfillMessage(Object[] row) {
+        Message m = new Message();
+        m.setId((Long) row[0]);
+        m.setUserId((Long) row[1]);
+        m.setSenderId((Long) row[2]);
+        m.setSenderName((String) row[3]);
+        m.setTitle((String) row[4]);
+        m.setContent((String) row[5]);
+        m.setType((String) row[6]);
+        m.setProductId((Long) row[7]);
+        m.setPostId((Long) row[8]);
+        m.setReadFlag((Boolean) row[9]);
+        m.setCreateTime((LocalDateTime) row[10]);
+        return m;
+    }
+
+    /**
+     * 新消息写入会话摘要
+     */
+    private void recordConversation(Message m) {
+        ConversationKey key = ConversationKey.of(m);
+        boolean toA = key.isUserA(m.getUserId());
+        conversationRepository.upsertOnMessage(key.userA(), key.userB(), key.kind(), key.refId(),
+                m.getId(), m.getSenderId(), truncate(m.getSenderName(), 50), truncate(m.getTitle(), 100),
+                truncate(m.getContent(), 255), m.getType(), m.getCreateTime(), toA ? 1 : 0, toA ? 0 : 1);
+        if (m.getSenderId() != null) {
+            // 发送方的会话预览也变了，提交后更新其版本号（消息中心 ETag）
+            unreadChanged(m.getSenderId(), 0, false);
+        }
+    }
+
+    private static void applyLastMessage(Conversation c, Message m) {
+        c.setLastMessageId(m.getId());
+        c.setLastSenderId(m.getSenderId());
+        c.setLastSenderName(truncate(m.getSenderName(), 50));
+        c.setLastTitle(truncate(m.getTitle(), 100));
+        c.setLastContent(truncate(m.getContent(), 255));
+        c.setLastType(m.getType());
+        c.setLastTime(m.getCreateTime());
+        if (c.getCreateTime() == null) {
+            c.setCreateTime(m.getCreateTime());
+        }
+    }
+
+    private static String truncate(String text, int max) {
+        return text != null && text.length() > max ? text.substring(0, max) : text;
+    }
+
+    /**
+     * 会话唯一键：两个参与者按ID排序 + 会话类型 + 关联对象ID
+     */
+    private record ConversationKey(Long userA, Long userB, String kind, Long refId) {
+
+        static ConversationKey of(Message m) {
+            if (m.getSenderId() == null) {
+                // 系统消息每条单独成为一个会话
+                return new ConversationKey(m.getUserId(), 0L, Conversation.KIND_SYSTEM, m.getId());
+            }
+            if (m.getPostId() != null) {
+                return of(m.getUserId(), m.getSenderId(), Conversation.KIND_POND, m.getPostId());
+            }
+            return of(m.getUserId(), m.getSenderId(), Conversation.KIND_PRODUCT, m.getProductId());
+        }
+
+        static ConversationKey of(Long user1, Long user2, String kind, Long refId) {
+            Long a = user1 <= user2 ? user1 : user2;
+            Long b = user1 <= user2 ? user2 : user1;
+            return new ConversationKey(a, b, kind, refId != null ? refId : 0L);
+        }
+
+        boolean isUserA(Long userId) {
+            return Objects.equals(userA, userId);
+        }
+
+        Conversation newConversation() {
+            Conversation c = new Conversation();
+            c.setUserA(userA);
+            c.setUserB(userB);
+            c.setKind(kind);
+            c.setRefId(refId);
+            c.setUnreadA(0);
+            c.setUnreadB(0);
+            return c;
+        }
+    }
+
+    /**
+     * 更新未读数缓存并推送
+     */
+    private void unreadChanged(Long userId, long delta) {
+        unreadChanged(userId, delta, true);
+    }
+
+    /**
+     * 未读数和版本号在事务提交后才变化：提交前变化的话，回滚会让缓存的计数永久偏差，
+     * 提交前到达的轮询也会以新版本号读到旧数据，之后一直 304
+     */
+    private void unreadChanged(Long userId, long delta, boolean push) {
+        if (userId == null) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            unreadCounterStore.add(userId, delta);
+            if (push) {
+                notifyUnread(userId);
+            }
+            return;
+        }
+        unreadCounterStore.begin(userId);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                boolean committed = status == STATUS_COMMITTED;
+                unreadCounterStore.end(userId, delta, committed);
+                if (committed && push) {
+                    notifyUnread(userId);
+                }
+            }
+        });
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * 未读数变化后推送给在线的用户（没有推送连接时不做 COUNT 查询）
+     */
+    private void notifyUnread(Long userId) {
+        if (userId != null && unreadPushService.hasSubscribers(userId)) {
+            unreadPushService.push(userId, countUnread(userId));
+        }
+    }
+}
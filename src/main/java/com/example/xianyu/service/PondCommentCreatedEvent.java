@@ -0,0 +1,13 @@
+package com.example.xianyu.service;
+
+/**
+ * 鱼塘动态收到新评论（评论人不是帖子发布者时发布），事务提交后异步生成消息通知
+ */
+public record PondCommentCreatedEvent(Long postId,
+                                      Long commentId,
+                                      Long commenterId,
+                                      String commenterName,
+                                      Long postOwnerId,
+                                      String postContent,
+                                      String commentContent) {
+}
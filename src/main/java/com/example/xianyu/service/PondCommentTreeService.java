@@ -0,0 +1,113 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.common.CursorPage;
+import com.example.xianyu.common.LongObjectMap;
+import com.example.xianyu.common.TimeIdCursor;
+import com.example.xianyu.entity.PondComment;
+import com.example.xianyu.repository.PondCommentRepository;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 鱼塘评论树（顶级评论 + 回复，两层）
+ * 一页评论只用两条查询：一页顶级评论（键集分页），以及这些评论各自最早的 REPLY_PREVIEW 条回复（窗口函数）；
+ * 回复较多的评论返回 moreRepliesCursor，由客户端按需继续加载，评论再多首屏也只加载固定数量
+ */
+@Service
+public class PondCommentTreeService {
+
+    /**
+     * 每页顶级评论数
+     */
+    public static final int ROOT_PAGE_SIZE = 20;
+    public static final int MAX_ROOT_PAGE_SIZE = 50;
+
+    /**
+     * 每条顶级评论预先加载的回复数
+     */
+    public static final int REPLY_PREVIEW = 3;
+
+    /**
+     * “查看更多回复”每次加载的回复数
+     */
+    public static final int REPLY_PAGE_SIZE = 20;
+
+    private final PondCommentRepository commentRepository;
+
+    public PondCommentTreeService(PondCommentRepository commentRepository) {
+        this.commentRepository = commentRepository;
+    }
+
+    /**
+     * 一页顶级评论及其前几条回复
+     */
+    public CursorPage<CommentNode> pageTree(Long postId, String cursor, int size) {
+        int pageSize = size <= 0 ? ROOT_PAGE_SIZE : Math.min(size, MAX_ROOT_PAGE_SIZE);
+        TimeIdCursor after = TimeIdCursor.decode(cursor);
+        PageRequest limit = PageRequest.of(0, pageSize + 1);
+        List<PondComment> roots = after == null
+                ? commentRepository.findRoots(postId, limit)
+                : commentRepository.findRootsAfter(postId, after.getTime(), after.getId(), limit);
+        String nextCursor = null;
+        if (roots.size() > pageSize) {
+            roots = roots.subList(0, pageSize);
+            PondComment last = roots.get(pageSize - 1);
+            nextCursor = new TimeIdCursor(last.getCreateTime(), last.getId()).encode();
+        }
+        if (roots.isEmpty()) {
+            return new CursorPage<>(List.of(), null);
+        }
+
+        List<CommentNode> nodes = new ArrayList<>(roots.size());
+        LongObjectMap<CommentNode> byId = new LongObjectMap<>(roots.size());
+        List<Long> rootIds = new ArrayList<>(roots.size());
+        for (PondComment c : roots) {
+            CommentNode node = CommentNode.of(c);
+            nodes.add(node);
+            byId.put(c.getId(), node);
+            rootIds.add(c.getId());
+        }
+
+        // 每条多取一条，用来判断是否还有更多回复
+        for (PondComment reply : commentRepository.findFirstReplies(rootIds, REPLY_PREVIEW + 1)) {
+            CommentNode parent = byId.get(reply.getParentId());
+            if (parent == null) {
+                continue;
+            }
+            if (parent.getReplies().size() < REPLY_PREVIEW) {
+                parent.getReplies().add(CommentNode.of(reply));
+            } else if (parent.getMoreRepliesCursor() == null) {
+                CommentNode lastShown = parent.getReplies().get(REPLY_PREVIEW - 1);
+                parent.setMoreRepliesCursor(new TimeIdCursor(lastShown.getCreateTime(), lastShown.getId()).encode());
+            }
+        }
+        return new CursorPage<>(nodes, nextCursor);
+    }
+
+    /**
+     * “查看更多回复”：某条评论在游标之后的一页回复
+     */
+    public CursorPage<CommentNode> pageReplies(Long parentId, String cursor, int size) {
+        int pageSize = size <= 0 ? REPLY_PAGE_SIZE : Math.min(size, MAX_ROOT_PAGE_SIZE);
+        TimeIdCursor after = TimeIdCursor.decode(cursor);
+        if (after == null) {
+            return new CursorPage<>(List.of(), null);
+        }
+        List<PondComment> rows = commentRepository.findRepliesAfter(parentId, after.getTime(), after.getId(),
+                PageRequest.of(0, pageSize + 1));
+        String nextCursor = null;
+        if (rows.size() > pageSize) {
+            rows = rows.subList(0, pageSize);
+            PondComment last = rows.get(pageSize - 1);
+            nextCursor = new TimeIdCursor(last.getCreateTime(), last.getId()).encode();
+        }
+        List<CommentNode> nodes = new ArrayList<>(rows.size());
+        for (PondComment c : rows) {
+            nodes.add(CommentNode.of(c));
+        }
+        return new CursorPage<>(nodes, nextCursor);
+    }
+}
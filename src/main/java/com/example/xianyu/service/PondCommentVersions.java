@@ -0,0 +1,219 @@
+package com.example.xianyu.service;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 鱼塘评论版本号（内存）
+ * - 每条动态一个版本号，新增、删除评论的事务提交后递增，用作 /pond/post/{id}/comments/api 的 ETag，
+ *   评论没有变化的轮询直接返回 304，不查询数据库
+ * - 每条动态保留最近 MAX_EVENTS 次变更（新增的评论ID、被删除的评论ID），增量轮询据此返回墓碑，
+ *   以及提交晚于更大ID评论、落在 sinceId 之前的新评论
+ * - 客户端持有的版本早于保留的变更（或来自重启之前）时无法给出增量，由调用方返回全量列表
+ * - 闲置超过 IDLE_MILLIS 的变更记录定时移除；没有记录的动态共用一个“无记录版本”，每次移除记录时递增，
+ *   持有被移除记录版本的客户端会拿到全量列表，不会误判为没有变化
+ */
+@Component
+public class PondCommentVersions {
+
+    /**
+     * 每条动态保留的变更数
+     */
+    static final int MAX_EVENTS = 200;
+
+    /**
+     * 变更记录的闲置保留时间
+     */
+    static final long IDLE_MILLIS = 30 * 60 * 1000L;
+
+    /**
+     * 全局版本号，以启动时间为起点，避免重启后与浏览器持有的旧版本相同
+     */
+    private final AtomicLong versionSeq = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * 没有变更记录的动态使用的版本号：启动时为初始值，每次移除闲置记录时更新
+     */
+    private volatile long missingVersion = versionSeq.get();
+
+    /**
+     * 动态ID -> 变更记录
+     */
+    private final Map<Long, Log> logs = new ConcurrentHashMap<>();
+
+    /**
+     * 当前版本号
+     */
+    public long current(Long postId) {
+        Log log = logs.get(postId);
+        if (log == null) {
+            return missingVersion;
+        }
+        synchronized (log) {
+            if (log.evicted) {
+                return missingVersion;
+            }
+            log.lastAccess = System.currentTimeMillis();
+            return log.version;
+        }
+    }
+
+    /**
+     * 版本 since 之后的变更；since 不是本次启动分配的版本、或早于保留的变更时返回 null
+     */
+    public Delta changesSince(Long postId, long since) {
+        Log log = logs.get(postId);
+        if (log == null) {
+            return missingDelta(since);
+        }
+        synchronized (log) {
+            if (log.evicted) {
+                return missingDelta(since);
+            }
+            log.lastAccess = System.currentTimeMillis();
+            if (since > log.version || since < log.oldest) {
+                return null;
+            }
+            List<Long> added = new ArrayList<>();
+            List<Long> deleted = new ArrayList<>();
+            for (Event e : log.events) {
+                if (e.version > since) {
+                    (e.deleted ? deleted : added).add(e.commentId);
+                }
+            }
+            return new Delta(log.version, added, deleted);
+        }
+    }
+
+    /**
+     * 没有变更记录的动态：客户端持有的正是当前的无记录版本时没有变化，否则需要全量
+     */
+    private Delta missingDelta(long since) {
+        long version = missingVersion;
+        return since == version ? new Delta(version, List.of(), List.of()) : null;
+    }
+
+    /**
+     * 移除闲置的变更记录；之后这些动态使用新的无记录版本
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void evictIdle() {
+        long idleBefore = System.currentTimeMillis() - IDLE_MILLIS;
+        for (Map.Entry<Long, Log> e : logs.entrySet()) {
+            Log log = e.getValue();
+            synchronized (log) {
+                if (log.lastAccess < idleBefore) {
+                    // 先更新无记录版本再标记，读到已移除记录的调用方拿到的是新版本
+                    missingVersion = versionSeq.incrementAndGet();
+                    log.evicted = true;
+                    logs.remove(e.getKey(), log);
+                }
+            }
+        }
+    }
+
+    /**
+     * 新增评论（在评论事务内调用，提交后生效）
+     */
+    public void onCommentAdded(Long postId, Long commentId) {
+        afterCommit(() -> record(postId, commentId, false));
+    }
+
+    /**
+     * 删除评论（在评论事务内调用，提交后生效）
+     */
+    public void onCommentDeleted(Long postId, Long commentId) {
+        afterCommit(() -> record(postId, commentId, true));
+    }
+
+    /**
+     * 删除动态
+     */
+    public void onPostRemoved(Long postId) {
+        afterCommit(() -> logs.remove(postId));
+    }
+
+    /**
+     * 版本号必须在提交之后才变化：否则轮询可能在提交前拿到新版本号却读不到新评论，
+     * 之后一直 304，直到下一次变更
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void record(Long postId, Long commentId, boolean deleted) {
+        while (true) {
+            // 新记录从当前的无记录版本开始，持有该版本的客户端可以拿到增量
+            Log log = logs.computeIfAbsent(postId, id -> new Log(missingVersion));
+            synchronized (log) {
+                if (log.evicted) {
+                    // 刚被移除，重新创建
+                    continue;
+                }
+                long version = versionSeq.incrementAndGet();
+                log.events.addLast(new Event(version, commentId, deleted));
+                if (log.events.size() > MAX_EVENTS) {
+                    // 客户端版本不早于被丢弃变更的版本时，仍能得到完整的增量
+                    log.oldest = log.events.removeFirst().version;
+                }
+                log.version = version;
+                log.lastAccess = System.currentTimeMillis();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 某个版本之后的变更：新增的评论ID与被删除的评论ID（墓碑）
+     */
+    public record Delta(long version, List<Long> addedIds, List<Long> deletedIds) {
+    }
+
+    private record Event(long version, Long commentId, boolean deleted) {
+    }
+
+    /**
+     * 一条动态的变更记录，访问时需持有该对象的锁
+     */
+    private static final class Log {
+
+        final ArrayDeque<Event> events = new ArrayDeque<>();
+
+        long version;
+
+        /**
+         * 能够给出增量的最早版本
+         */
+        long oldest;
+
+        long lastAccess = System.currentTimeMillis();
+
+        /**
+         * 已被移除，持有旧引用的调用方按无记录处理
+         */
+        boolean evicted;
+
+        Log(long baseVersion) {
+            this.version = baseVersion;
+            this.oldest = baseVersion;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.repository.PondPostRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * 鱼塘评论数、点赞数校正
+ * 计数平时按增量原子更新，异常中断、手工改库等情况下可能与 pond_comment / pond_like 的实际条数不一致；
+ * 定时按ID区间分块重算，每块一个短事务，不会长时间锁住整张表
+ */
+@Component
+public class PondCounterReconciler {
+
+    /**
+     * 每块校正的动态数
+     */
+    static final int CHUNK_SIZE = 500;
+
+    private final PondPostRepository postRepository;
+    private final PondHotRanking hotRanking;
+    private final PondLikeService likeService;
+    private final TransactionTemplate transactionTemplate;
+
+    public PondCounterReconciler(PondPostRepository postRepository,
+                                 PondHotRanking hotRanking,
+                                 PondLikeService likeService,
+                                 PlatformTransactionManager transactionManager) {
+        this.postRepository = postRepository;
+        this.hotRanking = hotRanking;
+        this.likeService = likeService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * 每天凌晨 4 点执行
+     */
+    @Scheduled(cron = "0 0 4 * * *")
+    public void reconcile() {
+        Long maxId = postRepository.findMaxId();
+        if (maxId == null) {
+            return;
+        }
+        // 先写回内存中的点赞变更，点赞行和点赞数在同一批次内提交，校正时两者一致
+        likeService.flush();
+        int fixed = 0;
+        for (long from = 0; from < maxId; from += CHUNK_SIZE) {
+            long fromId = from;
+            Integer updated = transactionTemplate.execute(status ->
+                    postRepository.reconcileCommentCounts(fromId, fromId + CHUNK_SIZE)
+                            + postRepository.reconcileLikeCounts(fromId, fromId + CHUNK_SIZE));
+            fixed += updated != null ? updated : 0;
+        }
+        if (fixed > 0) {
+            System.err.println("鱼塘计数校正: 修正 " + fixed + " 处");
+            // 热门排序中的计数也随之失准，重新加载
+            hotRanking.load();
+        }
+    }
+}
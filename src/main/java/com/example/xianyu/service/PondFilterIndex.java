@@ -0,0 +1,323 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.common.LongObjectMap;
+import com.example.xianyu.entity.PondPost;
+import com.example.xianyu.repository.PondPostRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+/**
+ * 鱼塘分类 × 城市筛选索引（内存位图）
+ * - 帖子按发布时间正序编号（序号），新帖追加到末尾；每个分类、每个城市各一个位图，第 i 位表示序号 i 的帖子
+ * - 筛选 = 同一维度内多选取并集、不同维度之间取交集，再从游标处按序号倒序（即发布时间倒序）取一页
+ * - 各分类 / 城市的帖子数直接由位图基数得到，不查询数据库
+ * - 删帖只清除对应的位，序号不回收；重启时重新编号
+ */
+@Component
+public class PondFilterIndex {
+
+    private final PondPostRepository postRepository;
+
+    /**
+     * 序号 -> 帖子ID
+     */
+    private long[] postIds = new long[0];
+
+    /**
+     * 序号 -> 分类、城市在字典中的编号（没有时为 -1）
+     */
+    private int[] categoryCodes = new int[0];
+    private int[] cityCodes = new int[0];
+
+    private int size;
+
+    /**
+     * 帖子ID -> 序号（删帖后保留，旧游标仍能定位）
+     */
+    private LongObjectMap<Integer> ordinals = new LongObjectMap<>(16);
+
+    /**
+     * 未删除的帖子
+     */
+    private final BitSet alive = new BitSet();
+
+    private final Dimension categories = new Dimension();
+    private final Dimension cities = new Dimension();
+
+    /**
+     * 加载期间收到的发帖 / 删帖，加载完成后按顺序重放（持有本对象的锁访问；不在加载时为 null）
+     */
+    private List<Runnable> replay;
+
+    public PondFilterIndex(PondPostRepository postRepository) {
+        this.postRepository = postRepository;
+    }
+
+    /**
+     * 应用启动后从数据库加载帖子的分类和城市（不加载正文）
+     * 此时已经在接收请求：查询之前就开始记录发帖 / 删帖，重建后重放，查询与加锁之间的变更不会丢失
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        synchronized (this) {
+            replay = new ArrayList<>();
+        }
+        List<Object[]> rows;
+        try {
+            rows = postRepository.findFilterFeatures();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                replay = null;
+            }
+            throw e;
+        }
+        synchronized (this) {
+            postIds = new long[Math.max(16, rows.size())];
+            categoryCodes = new int[postIds.length];
+            cityCodes = new int[postIds.length];
+            size = 0;
+            ordinals = new LongObjectMap<>(rows.size());
+            alive.clear();
+            categories.clear();
+            cities.clear();
+            for (Object[] row : rows) {
+                append((Long) row[0], (String) row[1], (String) row[2]);
+            }
+            for (Runnable op : replay) {
+                op.run();
+            }
+            replay = null;
+        }
+    }
+
+    /**
+     * 发帖后调用
+     */
+    public synchronized void onPostCreated(PondPost post) {
+        created(post.getId(), post.getCategory(), post.getCity());
+        if (replay != null) {
+            Long postId = post.getId();
+            String category = post.getCategory();
+            String city = post.getCity();
+            replay.add(() -> created(postId, category, city));
+        }
+    }
+
+    private void created(Long postId, String category, String city) {
+        if (ordinals.get(postId) == null) {
+            append(postId, category, city);
+        }
+    }
+
+    public synchronized void onPostRemoved(Long postId) {
+        removed(postId);
+        if (replay != null) {
+            replay.add(() -> removed(postId));
+        }
+    }
+
+    private void removed(Long postId) {
+        Integer ordinal = ordinals.get(postId);
+        if (ordinal == null || !alive.get(ordinal)) {
+            return;
+        }
+        alive.clear(ordinal);
+        categories.clear(categoryCodes[ordinal], ordinal);
+        cities.clear(cityCodes[ordinal], ordinal);
+    }
+
+    /**
+     * 发布时间倒序的一页帖子ID，从 afterPostId 之后开始（为 null 时从最新开始）；
+     * 多取一个，调用方据此判断是否还有下一页
+     */
+    public synchronized List<Long> page(Collection<String> categoryFilter, Collection<String> cityFilter,
+                                        Long afterPostId, int size) {
+        int from = this.size - 1;
+        if (afterPostId != null) {
+            Integer ordinal = ordinals.get(afterPostId);
+            if (ordinal == null) {
+                return List.of();
+            }
+            from = ordinal - 1;
+        }
+        BitSet primary = alive;
+        BitSet secondary = null;
+        BitSet byCategory = categories.union(categoryFilter);
+        BitSet byCity = cities.union(cityFilter);
+        if (byCategory != null && byCity != null) {
+            // 从基数较小的位图出发，逐位检查另一个
+            boolean categorySmaller = byCategory.cardinality() <= byCity.cardinality();
+            primary = categorySmaller ? byCategory : byCity;
+            secondary = categorySmaller ? byCity : byCategory;
+        } else if (byCategory != null) {
+            primary = byCategory;
+        } else if (byCity != null) {
+            primary = byCity;
+        }
+        List<Long> ids = new ArrayList<>(size + 1);
+        for (int i = from < 0 ? -1 : primary.previousSetBit(from); i >= 0 && ids.size() <= size;
+             i = i == 0 ? -1 : primary.previousSetBit(i - 1)) {
+            if (secondary == null || secondary.get(i)) {
+                ids.add(postIds[i]);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * 帖子是否满足筛选条件（按其他顺序遍历帖子时使用）
+     */
+    public LongPredicate matcher(Collection<String> categoryFilter, Collection<String> cityFilter) {
+        return postId -> {
+            synchronized (this) {
+                Integer ordinal = ordinals.get(postId);
+                return ordinal != null && alive.get(ordinal)
+                        && categories.matches(categoryCodes[ordinal], categoryFilter)
+                        && cities.matches(cityCodes[ordinal], cityFilter);
+            }
+        };
+    }
+
+    /**
+     * 各分类、各城市的帖子数：分类的计数受城市筛选约束，城市的计数受分类筛选约束，
+     * 即选中某个维度后，另一维度显示的是在其中再筛选能得到的帖子数
+     */
+    public synchronized Facets facets(Collection<String> categoryFilter, Collection<String> cityFilter) {
+        return new Facets(categories.counts(cities.union(cityFilter)), cities.counts(categories.union(categoryFilter)));
+    }
+
+    private void append(Long postId, String category, String city) {
+        if (size == postIds.length) {
+            int capacity = size + (size >> 1) + 16;
+            postIds = Arrays.copyOf(postIds, capacity);
+            categoryCodes = Arrays.copyOf(categoryCodes, capacity);
+            cityCodes = Arrays.copyOf(cityCodes, capacity);
+        }
+        int ordinal = size++;
+        postIds[ordinal] = postId;
+        categoryCodes[ordinal] = categories.add(category, ordinal);
+        cityCodes[ordinal] = cities.add(city, ordinal);
+        ordinals.put(postId, ordinal);
+        alive.set(ordinal);
+    }
+
+    /**
+     * 每个取值的帖子数（按帖子数倒序）
+     */
+    public record Facets(Map<String, Integer> categories, Map<String, Integer> cities) {
+    }
+
+    /**
+     * 一个筛选维度：取值字典，以及每个取值一个位图
+     */
+    private static final class Dimension {
+
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        private final List<BitSet> bitmaps = new ArrayList<>();
+
+        /**
+         * 记录序号 ordinal 的取值，返回取值的编号；空值不建索引，返回 -1
+         */
+        int add(String value, int ordinal) {
+            if (value == null || value.isEmpty()) {
+                return -1;
+            }
+            int code = codes.computeIfAbsent(value, v -> {
+                values.add(v);
+                bitmaps.add(new BitSet());
+                return values.size() - 1;
+            });
+            bitmaps.get(code).set(ordinal);
+            return code;
+        }
+
+        void clear(int code, int ordinal) {
+            if (code >= 0) {
+                bitmaps.get(code).clear(ordinal);
+            }
+        }
+
+        void clear() {
+            codes.clear();
+            values.clear();
+            bitmaps.clear();
+        }
+
+        boolean matches(int code, Collection<String> filter) {
+            if (isEmpty(filter)) {
+                return true;
+            }
+            return code >= 0 && filter.contains(values.get(code));
+        }
+
+        /**
+         * 选中取值的位图并集；没有筛选时返回 null。只选一个取值时直接返回该位图，调用方不得修改
+         */
+        BitSet union(Collection<String> filter) {
+            if (isEmpty(filter)) {
+                return null;
+            }
+            BitSet result = null;
+            boolean shared = false;
+            for (String value : filter) {
+                Integer code = codes.get(value);
+                if (code == null) {
+                    continue;
+                }
+                BitSet bitmap = bitmaps.get(code);
+                if (result == null) {
+                    result = bitmap;
+                    shared = true;
+                } else {
+                    if (shared) {
+                        result = (BitSet) result.clone();
+                        shared = false;
+                    }
+                    result.or(bitmap);
+                }
+            }
+            return result != null ? result : new BitSet();
+        }
+
+        /**
+         * 每个取值的帖子数，within 不为空时只统计其中的帖子；不含帖子数为 0 的取值
+         */
+        Map<String, Integer> counts(BitSet within) {
+            List<Map.Entry<String, Integer>> counts = new ArrayList<>();
+            for (int code = 0; code < values.size(); code++) {
+                BitSet bitmap = bitmaps.get(code);
+                int count;
+                if (within == null) {
+                    count = bitmap.cardinality();
+                } else {
+                    BitSet intersection = (BitSet) bitmap.clone();
+                    intersection.and(within);
+                    count = intersection.cardinality();
+                }
+                if (count > 0) {
+                    counts.add(Map.entry(values.get(code), count));
+                }
+            }
+            counts.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+            Map<String, Integer> result = new LinkedHashMap<>();
+            counts.forEach(e -> result.put(e.getKey(), e.getValue()));
+            return result;
+        }
+
+        private static boolean isEmpty(Collection<String> filter) {
+            return filter == null || filter.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.common.BizException;
+import com.example.xianyu.common.CursorPage;
+import com.example.xianyu.common.ErrorCode;
+import com.example.xianyu.entity.PondPost;
+import com.example.xianyu.repository.PondPostRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.function.LongPredicate;
+
+/**
+ * 鱼塘热门排序
+ * 热度 = (1 + 点赞数 + 2 * 评论数) * 2^(-发布时长 / 24小时)，即每过一天热度减半
+ *
+ * 实现方式：
+ * - 所有帖子按同一速率衰减，两帖的相对顺序不随时间变化，
+ *   因此按取对数后的等价分数 ln(1 + 点赞数 + 2 * 评论数) + 发布时刻 * ln2 / 24小时 排序即可，无需定时重算
+ * - 分数只在发帖、删帖、点赞数/评论数变化时增量更新
+ * - 每个筛选条件（全部 / 分类 / 城市 / 分类+城市）各维护一个有序集合，翻页时从游标处取 size 个，
+ *   单次请求复杂度 O(log n + size)，与帖子总数无关
+ */
+@Component
+public class PondHotRanking {
+
+    /**
+     * 热度半衰期：24 小时
+     */
+    static final double HALF_LIFE_SECONDS = 24 * 60 * 60;
+
+    private static final Comparator<Entry> BY_SCORE_DESC =
+            Comparator.comparingDouble(Entry::score).thenComparingLong(Entry::id).reversed();
+
+    private final PondPostRepository postRepository;
+
+    private final Map<Long, Entry> entries = new HashMap<>();
+
+    /**
+     * 筛选条件 -> 该条件下按热度排序的帖子
+     */
+    private final Map<String, NavigableSet<Entry>> rankings = new HashMap<>();
+
+    public PondHotRanking(PondPostRepository postRepository) {
+        this.postRepository = postRepository;
+    }
+
+    /**
+     * 应用启动后从数据库加载帖子的排序特征（不加载正文）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        List<Object[]> rows = postRepository.findRankFeatures();
+        synchronized (this) {
+            entries.clear();
+            rankings.clear();
+            for (Object[] row : rows) {
+                put(Entry.of((Long) row[0], (String) row[1], (String) row[2],
+                        (Integer) row[3], (Integer) row[4], (LocalDateTime) row[5]));
+            }
+        }
+    }
+
+    /**
+     * 发帖或点赞数、评论数变化后调用
+     */
+    public synchronized void onPostChanged(PondPost post) {
+        remove(post.getId());
+        put(Entry.of(post.getId(), post.getCategory(), post.getCity(),
+                post.getLikeCount(), post.getCommentCount(), post.getCreateTime()));
+    }
+
+    /**
+     * 点赞数、评论数按增量变化（与数据库中的原子加减对应）
+     */
+    public synchronized void adjustCounts(Long postId, int likeDelta, int commentDelta) {
+        Entry old = entries.get(postId);
+        if (old == null) {
+            return;
+        }
+        remove(postId);
+        put(new Entry(old.id, old.category, old.city, Math.max(old.likes + likeDelta, 0),
+                Math.max(old.comments + commentDelta, 0), old.createSeconds));
+    }
+
+    public synchronized void onPostRemoved(Long postId) {
+        remove(postId);
+    }
+
+    /**
+     * 按热度翻页，返回帖子ID；游标为上一页最后一个帖子的 (分数, ID)
+     * 两次翻页之间热度有变化的帖子可能重复出现或被跳过，对信息流可以接受
+     */
+    public synchronized CursorPage<Long> page(String category, String city, String cursor, int size) {
+        return page(rankings.get(filterKey(category, city)), null, cursor, size);
+    }
+
+    /**
+     * 按热度翻页，只返回满足 accept 的帖子（多选筛选等没有预建有序集合的条件）；
+     * 在全部帖子的排序上逐个检查，筛选条件越稀疏扫描的帖子越多
+     */
+    public synchronized CursorPage<Long> page(LongPredicate accept, String cursor, int size) {
+        return page(rankings.get(filterKey(null, null)), accept, cursor, size);
+    }
+
+    private CursorPage<Long> page(NavigableSet<Entry> ranking, LongPredicate accept, String cursor, int size) {
+        if (ranking == null) {
+            return new CursorPage<>(List.of(), null);
+        }
+        Entry after = decodeCursor(cursor);
+        Iterable<Entry> from = after == null ? ranking : ranking.tailSet(after, false);
+        List<Long> ids = new ArrayList<>(size);
+        Entry last = null;
+        boolean hasMore = false;
+        for (Entry e : from) {
+            if (accept != null && !accept.test(e.id)) {
+                continue;
+            }
+            if (ids.size() == size) {
+                hasMore = true;
+                break;
+            }
+            ids.add(e.id);
+            last = e;
+        }
+        return new CursorPage<>(ids, hasMore ? encodeCursor(last) : null);
+    }
+
+    static double score(int likes, int comments, long createSeconds) {
+        return Math.log1p(likes + 2.0 * comments) + createSeconds * Math.log(2) / HALF_LIFE_SECONDS;
+    }
+
+    private void put(Entry e) {
+        entries.put(e.id, e);
+        for (String key : filterKeys(e)) {
+            rankings.computeIfAbsent(key, k -> new TreeSet<>(BY_SCORE_DESC)).add(e);
+        }
+    }
+
+    private void remove(Long postId) {
+        Entry old = entries.remove(postId);
+        if (old == null) {
+            return;
+        }
+        for (String key : filterKeys(old)) {
+            NavigableSet<Entry> ranking = rankings.get(key);
+            if (ranking != null) {
+                ranking.remove(old);
+                if (ranking.isEmpty()) {
+                    rankings.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * 帖子出现在哪些筛选条件下：全部、所属分类、所在城市、分类+城市
+     */
+    private static List<String> filterKeys(Entry e) {
+        List<String> keys = new ArrayList<>(4);
+        keys.add(filterKey(null, null));
+        if (e.category != null) {
+            keys.add(filterKey(e.category, null));
+        }
+        if (e.city != null && !e.city.isEmpty()) {
+            keys.add(filterKey(null, e.city));
+            if (e.category != null) {
+                keys.add(filterKey(e.category, e.city));
+            }
+        }
+        return keys;
+    }
+
+    private static String filterKey(String category, String city) {
+        boolean byCategory = category != null && !category.isEmpty();
+        boolean byCity = city != null && !city.isEmpty();
+        return (byCategory ? category : "") + "|" + (byCity ? city : "");
+    }
+
+    private static String encodeCursor(Entry e) {
+        String raw = e.score + "|" + e.id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析游标，为空时返回 null（表示第一页），格式错误时抛出参数错误
+     */
+    private static Entry decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.indexOf('|');
+            if (sep < 0) {
+                throw new BizException(ErrorCode.PARAM_ERROR);
+            }
+            return Entry.bound(Long.valueOf(raw.substring(sep + 1)), Double.parseDouble(raw.substring(0, sep)));
+        } catch (IllegalArgumentException e) {
+            throw new BizException(ErrorCode.PARAM_ERROR);
+        }
+    }
+
+    private record Entry(long id, String category, String city, int likes, int comments, long createSeconds,
+                         double score) {
+
+        Entry(long id, String category, String city, int likes, int comments, long createSeconds) {
+            this(id, category, city, likes, comments, createSeconds, PondHotRanking.score(likes, comments, createSeconds));
+        }
+
+        static Entry of(Long id, String category, String city, Integer likeCount, Integer commentCount,
+                        LocalDateTime createTime) {
+            long createSeconds = createTime != null
+                    ? createTime.atZone(ZoneId.systemDefault()).toEpochSecond()
+                    : System.currentTimeMillis() / 1000;
+            return new Entry(id, category, city, likeCount != null ? Math.max(likeCount, 0) : 0,
+                    commentCount != null ? Math.max(commentCount, 0) : 0, createSeconds);
+        }
+
+        /**
+         * 游标位置（只用于在有序集合中定位）
+         */
+        static Entry bound(long id, double score) {
+            return new Entry(id, null, null, 0, 0, 0, score);
+        }
+    }
+}
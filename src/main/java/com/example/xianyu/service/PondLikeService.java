@@ -0,0 +1,303 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.common.SortedLongSet;
+import com.example.xianyu.repository.PondLikeRepository;
+import com.example.xianyu.repository.PondPostRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 鱼塘动态点赞
+ * - 每条动态的点赞用户ID保存在内存有序集合中（首次访问时从数据库加载），重复点赞直接在内存中判断
+ * - 点赞/取消只修改内存并记录待写入的变更，每秒批量写回：点赞行逐条 insert ignore / delete，
+ *   点赞数每条动态每批只执行一次 like_count = like_count + delta，热门动态不会因为逐次 UPDATE 形成行锁热点
+ * - 同一用户在一个批次内点赞又取消会相互抵消；应用关闭时写回剩余变更
+ * - 变更已写回且闲置超过 {@link #IDLE_MILLIS} 的动态从内存中移除，下次访问时重新加载
+ * - 每条动态使用自己的锁，不同动态之间互不影响
+ */
+@Component
+public class PondLikeService {
+
+    /**
+     * 点赞状态在内存中的闲置保留时间
+     */
+    static final long IDLE_MILLIS = 10 * 60 * 1000L;
+
+    private final PondLikeRepository likeRepository;
+    private final PondPostRepository postRepository;
+    private final PondHotRanking hotRanking;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * 动态ID -> 点赞状态
+     */
+    private final Map<Long, PostLikes> posts = new ConcurrentHashMap<>();
+
+    /**
+     * 有待写回变更的动态
+     */
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+
+    public PondLikeService(PondLikeRepository likeRepository,
+                           PondPostRepository postRepository,
+                           PondHotRanking hotRanking,
+                           PlatformTransactionManager transactionManager) {
+        this.likeRepository = likeRepository;
+        this.postRepository = postRepository;
+        this.hotRanking = hotRanking;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * 点赞或取消点赞，返回操作后的状态
+     */
+    public LikeState toggle(Long postId, Long userId) {
+        LikeState state;
+        while (true) {
+            PostLikes likes = load(postId);
+            synchronized (likes) {
+                if (likes.evicted) {
+                    // 刚被移出内存，重新加载
+                    continue;
+                }
+                if (likes.removed) {
+                    throw new RuntimeException("动态不存在");
+                }
+                state = likes.toggle(userId);
+                break;
+            }
+        }
+        dirty.add(postId);
+        hotRanking.adjustCounts(postId, state.liked() ? 1 : -1, 0);
+        return state;
+    }
+
+    /**
+     * 当前状态（包括尚未写回数据库的变更）
+     */
+    public LikeState state(Long postId, Long userId) {
+        while (true) {
+            PostLikes likes = load(postId);
+            synchronized (likes) {
+                if (likes.evicted) {
+                    continue;
+                }
+                likes.lastAccess = System.currentTimeMillis();
+                return new LikeState(userId != null && likes.users.contains(userId), likes.users.size());
+            }
+        }
+    }
+
+    /**
+     * 删除动态时调用（在删除动态的事务内）：点赞记录随事务删除；
+     * 内存中的状态在事务提交后才丢弃，回滚时待写回的点赞不会丢失
+     */
+    public void onPostRemoved(Long postId) {
+        likeRepository.deleteByPostId(postId);
+        afterCommit(() -> discard(postId));
+    }
+
+    private void discard(Long postId) {
+        PostLikes likes = posts.remove(postId);
+        if (likes != null) {
+            synchronized (likes) {
+                likes.removed = true;
+                likes.pending.clear();
+                likes.pendingDelta = 0;
+            }
+        }
+    }
+
+    /**
+     * 批量写回；同一时刻只有一个批次在写，保证同一用户的先后操作按顺序落库
+     */
+    @Scheduled(fixedDelay = 1000)
+    public synchronized void flush() {
+        if (dirty.isEmpty()) {
+            evictIdle();
+            return;
+        }
+        List<Batch> batches = new ArrayList<>();
+        for (Long postId : new ArrayList<>(dirty)) {
+            dirty.remove(postId);
+            PostLikes likes = posts.get(postId);
+            if (likes == null) {
+                continue;
+            }
+            synchronized (likes) {
+                if (likes.removed || (likes.pending.isEmpty() && likes.pendingDelta == 0)) {
+                    continue;
+                }
+                batches.add(new Batch(postId, new HashMap<>(likes.pending), likes.pendingDelta));
+                likes.pending.clear();
+                likes.pendingDelta = 0;
+            }
+        }
+        if (batches.isEmpty()) {
+            evictIdle();
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                LocalDateTime now = LocalDateTime.now();
+                for (Batch batch : batches) {
+                    batch.ops.forEach((userId, liked) -> {
+                        if (liked) {
+                            likeRepository.insertIgnore(batch.postId, userId, now);
+                        } else {
+                            likeRepository.deleteByPostIdAndUserId(batch.postId, userId);
+                        }
+                    });
+                    if (batch.delta != 0) {
+                        postRepository.addLikeCount(batch.postId, batch.delta);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            System.err.println("点赞写回失败，下次重试: " + e.getMessage());
+            restore(batches);
+        }
+        evictIdle();
+    }
+
+    /**
+     * 移除已写回、闲置的动态；在 flush 内执行，不会与写回失败后的 restore 交错
+     */
+    private void evictIdle() {
+        long idleBefore = System.currentTimeMillis() - IDLE_MILLIS;
+        for (Map.Entry<Long, PostLikes> e : posts.entrySet()) {
+            PostLikes likes = e.getValue();
+            synchronized (likes) {
+                if (likes.lastAccess < idleBefore && likes.pending.isEmpty() && likes.pendingDelta == 0
+                        && !dirty.contains(e.getKey())) {
+                    likes.evicted = true;
+                    posts.remove(e.getKey(), likes);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * 写回失败时把变更放回去，与期间新产生的变更合并
+     */
+    private void restore(List<Batch> batches) {
+        for (Batch batch : batches) {
+            PostLikes likes = posts.get(batch.postId);
+            if (likes == null) {
+                continue;
+            }
+            synchronized (likes) {
+                if (likes.removed) {
+                    continue;
+                }
+                batch.ops.forEach((userId, liked) -> likes.record(userId, liked, 0));
+                likes.pendingDelta += batch.delta;
+            }
+            dirty.add(batch.postId);
+        }
+    }
+
+    private PostLikes load(Long postId) {
+        PostLikes likes = posts.get(postId);
+        if (likes != null) {
+            return likes;
+        }
+        if (!postRepository.existsById(postId)) {
+            throw new RuntimeException("动态不存在");
+        }
+        long[] userIds = likeRepository.findUserIdsByPostId(postId).stream().mapToLong(Long::longValue).toArray();
+        PostLikes loaded = new PostLikes(new SortedLongSet(userIds));
+        PostLikes existing = posts.putIfAbsent(postId, loaded);
+        return existing != null ? existing : loaded;
+    }
+
+    /**
+     * 在事务提交后执行；没有事务时立即执行
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    public record LikeState(boolean liked, int likeCount) {
+    }
+
+    private record Batch(Long postId, Map<Long, Boolean> ops, int delta) {
+    }
+
+    /**
+     * 一条动态的点赞状态，访问时需持有该对象的锁
+     */
+    private static final class PostLikes {
+
+        final SortedLongSet users;
+
+        /**
+         * 用户ID -> 待写回的最终状态（true 点赞 / false 取消），只记录与数据库不一致的用户
+         */
+        final Map<Long, Boolean> pending = new HashMap<>();
+
+        int pendingDelta;
+
+        boolean removed;
+
+        /**
+         * 已移出内存，持有旧引用的调用方需重新加载
+         */
+        boolean evicted;
+
+        long lastAccess = System.currentTimeMillis();
+
+        PostLikes(SortedLongSet users) {
+            this.users = users;
+        }
+
+        LikeState toggle(Long userId) {
+            boolean liked = !users.contains(userId);
+            if (liked) {
+                users.add(userId);
+            } else {
+                users.remove(userId);
+            }
+            record(userId, liked, liked ? 1 : -1);
+            lastAccess = System.currentTimeMillis();
+            return new LikeState(liked, users.size());
+        }
+
+        /**
+         * 记录一次状态变化；与已记录的相反变化相互抵消（数据库中的状态就是变化之前的状态）
+         */
+        void record(Long userId, boolean liked, int delta) {
+            if (pending.remove(userId) == null) {
+                pending.put(userId, liked);
+            }
+            pendingDelta += delta;
+        }
+    }
+}
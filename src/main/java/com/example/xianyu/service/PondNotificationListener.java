@@ -0,0 +1,89 @@
+package com.example.xianyu.service;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 鱼塘评论通知：评论事务提交后交给 pondNotificationExecutor 写入消息，
+ * 评论接口的响应时间不再包含通知写入，评论事务也不用等通知写完才释放行锁
+ */
+@Component
+public class PondNotificationListener {
+
+    /**
+     * 死锁 / 锁等待超时时的最多尝试次数
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final MessageService messageService;
+    private final TaskExecutor executor;
+    private final TransactionTemplate transactionTemplate;
+
+    public PondNotificationListener(MessageService messageService,
+                                    @Qualifier("pondNotificationExecutor") TaskExecutor executor,
+                                    PlatformTransactionManager transactionManager) {
+        this.messageService = messageService;
+        this.executor = executor;
+        // 队列满时任务在提交线程上执行，此时仍处于评论事务的 afterCommit 回调中，必须开启新事务
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * 评论回滚时不会收到事件，也就不会产生通知
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onCommentCreated(PondCommentCreatedEvent event) {
+        executor.execute(() -> notify(event));
+    }
+
+    /**
+     * 合并通知时对空范围加的锁是间隙锁，同一帖子的两条通知并发插入会死锁，InnoDB 回滚其中一个；
+     * 重试时另一个事务已提交，会合并到它写入的那条通知里
+     */
+    private void notify(PondCommentCreatedEvent event) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> messageService.sendPondCommentMessage(
+                        event.commenterId(),
+                        event.commenterName(),
+                        event.postOwnerId(),
+                        event.postId(),
+                        event.postContent(),
+                        event.commentContent()));
+                return;
+            } catch (ConcurrencyFailureException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    System.err.println("鱼塘评论通知发送失败（锁冲突重试 " + attempt + " 次）: commentId="
+                            + event.commentId() + " - " + e.getMessage());
+                    return;
+                }
+                backoff(attempt);
+            } catch (RuntimeException e) {
+                // 通知失败不影响已提交的评论
+                System.err.println("鱼塘评论通知发送失败: commentId=" + event.commentId() + " - " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * 随机退避，避免两个冲突的通知再次同时重试
+     */
+    private static void backoff(int attempt) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(10, 30) * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
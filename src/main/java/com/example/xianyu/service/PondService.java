@@ -1,41 +1,64 @@
 package com.example.xianyu.service;
 
+import com.example.xianyu.common.CursorPage;
+import com.example.xianyu.common.TimeIdCursor;
 import com.example.xianyu.entity.PondComment;
 import com.example.xianyu.entity.PondPost;
 import com.example.xianyu.entity.User;
 import com.example.xianyu.repository.PondCommentRepository;
 import com.example.xianyu.repository.PondPostRepository;
 import com.example.xianyu.repository.UserRepository;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
 public class PondService {
 
+    /**
+     * 鱼塘信息流每页动态数
+     */
+    public static final int FEED_PAGE_SIZE = 20;
+    public static final int MAX_FEED_PAGE_SIZE = 50;
+
+    public static final String SORT_HOT = "hot";
+
     private final PondPostRepository postRepository;
     private final PondCommentRepository commentRepository;
     private final UserRepository userRepository;
-    private final MessageService messageService;
-
-    @Value("${upload.dir:uploads}")
-    private String uploadDir;
+    private final ApplicationEventPublisher eventPublisher;
+    private final PondHotRanking hotRanking;
+    private final PondFilterIndex filterIndex;
+    private final PondLikeService likeService;
+    private final PondCommentVersions commentVersions;
+    private final UploadStorageService uploadStorageService;
 
     public PondService(PondPostRepository postRepository,
                       PondCommentRepository commentRepository,
                       UserRepository userRepository,
-                      MessageService messageService) {
+                      ApplicationEventPublisher eventPublisher,
+                      PondHotRanking hotRanking,
+                      PondFilterIndex filterIndex,
+                      PondLikeService likeService,
+                      PondCommentVersions commentVersions,
+                      UploadStorageService uploadStorageService) {
         this.postRepository = postRepository;
         this.commentRepository = commentRepository;
         this.userRepository = userRepository;
-        this.messageService = messageService;
+        this.eventPublisher = eventPublisher;
+        this.hotRanking = hotRanking;
+        this.filterIndex = filterIndex;
+        this.likeService = likeService;
+        this.commentVersions = commentVersions;
+        this.uploadStorageService = uploadStorageService;
     }
 
     /**
@@ -58,22 +81,81 @@ public class PondService {
         post.setCategory(category != null ? category : "other");
         post.setCity(city);
 
-        return postRepository.save(post);
+        PondPost saved = postRepository.save(post);
+        afterCommit(() -> hotRanking.onPostChanged(saved));
+        afterCommit(() -> filterIndex.onPostCreated(saved));
+        return saved;
+    }
+
+    /**
+     * 动态列表游标分页，分类、城市都可多选（同一维度内为“或”，不同维度之间为“且”）
+     * - 默认按发布时间倒序，顺序和筛选来自内存中的 {@link PondFilterIndex}，再按ID批量加载本页动态
+     * - sort=hot 时按热度排序，顺序来自内存中的 {@link PondHotRanking}
+     */
+    public CursorPage<PondPost> pagePosts(List<String> categories, List<String> cities, String sort, String cursor, int size) {
+        int pageSize = size <= 0 ? FEED_PAGE_SIZE : Math.min(size, MAX_FEED_PAGE_SIZE);
+        List<String> categoryFilter = normalizeFilter(categories);
+        List<String> cityFilter = normalizeFilter(cities);
+        if (SORT_HOT.equals(sort)) {
+            CursorPage<Long> ids = categoryFilter.size() <= 1 && cityFilter.size() <= 1
+                    ? hotRanking.page(first(categoryFilter), first(cityFilter), cursor, pageSize)
+                    : hotRanking.page(filterIndex.matcher(categoryFilter, cityFilter), cursor, pageSize);
+            return new CursorPage<>(loadInOrder(ids.getItems()), ids.getNextCursor());
+        }
+        TimeIdCursor after = TimeIdCursor.decode(cursor);
+        List<Long> ids = filterIndex.page(categoryFilter, cityFilter, after != null ? after.getId() : null, pageSize);
+        boolean hasMore = ids.size() > pageSize;
+        List<PondPost> posts = loadInOrder(hasMore ? ids.subList(0, pageSize) : ids);
+        String nextCursor = null;
+        if (hasMore && !posts.isEmpty()) {
+            // 本页最后一条若刚被删除，从最后一条仍存在的动态继续，已删除的动态不在索引中，不会重复
+            PondPost last = posts.get(posts.size() - 1);
+            nextCursor = new TimeIdCursor(last.getCreateTime(), last.getId()).encode();
+        }
+        return new CursorPage<>(posts, nextCursor);
+    }
+
+    /**
+     * 各分类、各城市的动态数（筛选面板计数）
+     */
+    public PondFilterIndex.Facets getFacets(List<String> categories, List<String> cities) {
+        return filterIndex.facets(normalizeFilter(categories), normalizeFilter(cities));
+    }
+
+    /**
+     * 按ID批量加载动态，保持ID列表的顺序，已删除的动态跳过
+     */
+    private List<PondPost> loadInOrder(List<Long> ids) {
+        Map<Long, PondPost> byId = new HashMap<>();
+        for (PondPost p : postRepository.findAllById(ids)) {
+            byId.put(p.getId(), p);
+        }
+        List<PondPost> posts = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            PondPost p = byId.get(id);
+            if (p != null) {
+                posts.add(p);
+            }
+        }
+        return posts;
     }
 
     /**
-     * 获取动态列表
+     * 去掉空值和重复值
      */
-    public List<PondPost> listPosts(String category, String city) {
-        if (category != null && !category.isEmpty() && city != null && !city.isEmpty()) {
-            return postRepository.findByCategoryAndCityOrderByCreateTimeDesc(category, city);
-        } else if (category != null && !category.isEmpty()) {
-            return postRepository.findByCategoryOrderByCreateTimeDesc(category);
-        } else if (city != null && !city.isEmpty()) {
-            return postRepository.findByCityOrderByCreateTimeDesc(city);
-        } else {
-            return postRepository.findAllByOrderByCreateTimeDesc();
+    private static List<String> normalizeFilter(List<String> values) {
+        if (values == null || values.isEmpty()) {
+            return List.of();
         }
+        return values.stream()
+                .filter(v -> v != null && !v.isBlank())
+                .map(String::trim)
+                .distinct()
+                .toList();
+    }
+
+    private static String first(List<String> values) {
+        return values.isEmpty() ? null : values.get(0);
     }
 
     /**
@@ -118,20 +200,22 @@ public class PondService {
 
         PondComment saved = commentRepository.save(comment);
 
-        // 更新动态的评论数
-        post.setCommentCount((int) commentRepository.countByPostId(postId));
-        postRepository.save(post);
+        // 评论数原子加一；不修改已加载的 post，避免提交时回写整行（包括正文）
+        postRepository.incrementCommentCount(postId);
+        afterCommit(() -> hotRanking.adjustCounts(postId, 0, 1));
+        commentVersions.onCommentAdded(postId, saved.getId());
 
-        // 如果评论的不是自己的帖子，给帖子发布者发送消息通知
+        // 如果评论的不是自己的帖子，给帖子发布者发送消息通知（事务提交后由 PondNotificationListener 异步写入）
         if (!post.getUserId().equals(userId)) {
-            messageService.sendPondCommentMessage(
+            eventPublisher.publishEvent(new PondCommentCreatedEvent(
+                postId,
+                saved.getId(),
                 userId,
                 user.getUsername(),
                 post.getUserId(),
-                postId,
                 post.getContent(),
                 content
-            );
+            ));
         }
 
         return saved;
@@ -144,6 +228,31 @@ public class PondService {
         return commentRepository.findByPostIdOrderByCreateTimeAsc(postId);
     }
 
+    /**
+     * 动态中ID大于 sinceId 的评论（增量轮询）
+     */
+    public List<PondComment> getCommentsAfter(Long postId, Long sinceId) {
+        return commentRepository.findByPostIdAndIdGreaterThanOrderByIdAsc(postId, sinceId);
+    }
+
+    /**
+     * 按ID批量获取动态的评论（按ID正序），不属于该动态的ID会被忽略
+     */
+    public List<PondComment> getCommentsByIds(Long postId, List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return commentRepository.findByPostIdAndIdInOrderByIdAsc(postId, ids);
+    }
+
+    /**
+     * 动态最大的评论ID，没有评论时为 0
+     */
+    public long getMaxCommentId(Long postId) {
+        Long maxId = commentRepository.findMaxIdByPostId(postId);
+        return maxId != null ? maxId : 0L;
+    }
+
     /**
      * 获取评论详情
      */
@@ -183,9 +292,10 @@ public class PondService {
         // 删除评论
         commentRepository.delete(comment);
 
-        // 更新动态的评论数
-        post.setCommentCount((int) commentRepository.countByPostId(comment.getPostId()));
-        postRepository.save(post);
+        // 评论数原子减一
+        postRepository.decrementCommentCount(post.getId());
+        afterCommit(() -> hotRanking.adjustCounts(post.getId(), 0, -1));
+        commentVersions.onCommentDeleted(post.getId(), commentId);
     }
 
     /**
@@ -203,32 +313,38 @@ public class PondService {
             throw new RuntimeException("无权删除此动态");
         }
 
-        // 优先删除对应的图片文件（如果有）
+        // 释放图片（事务提交后引用数减一，没有其他商品、动态使用时才删除文件）
         String images = post.getImages();
         if (images != null && !images.isEmpty()) {
-            String[] urls = images.split(",");
-            for (String url : urls) {
-                String trimmed = url == null ? null : url.trim();
-                if (trimmed == null || trimmed.isEmpty()) {
-                    continue;
-                }
-                // URL 形式类似于 /uploads/pond/xxx.png，这里只取文件名并使用与上传时相同的目录规则
-                int lastSlash = trimmed.lastIndexOf('/');
-                String filename = lastSlash >= 0 ? trimmed.substring(lastSlash + 1) : trimmed;
-                Path filePath = Paths.get(uploadDir, "pond", filename);
-                try {
-                    Files.deleteIfExists(filePath);
-                } catch (IOException e) {
-                    // 文件删除失败不阻塞业务，仅打印到错误输出，避免影响数据库删除
-                    System.err.println("删除鱼塘图片失败: " + filePath + " - " + e.getMessage());
-                }
+            for (String url : images.split(",")) {
+                uploadStorageService.release(url);
             }
         }
 
-        // 删除所有评论
+        // 删除所有评论和点赞
         commentRepository.deleteAll(commentRepository.findByPostIdOrderByCreateTimeAsc(postId));
+        likeService.onPostRemoved(postId);
         // 删除动态
         postRepository.delete(post);
+        afterCommit(() -> hotRanking.onPostRemoved(postId));
+        afterCommit(() -> filterIndex.onPostRemoved(postId));
+        commentVersions.onPostRemoved(postId);
+    }
+
+    /**
+     * 内存中的热度榜和筛选索引在事务提交后才更新：回滚的发布、评论、删除不会留在其中
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 }
 
@@ -0,0 +1,375 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.entity.Product;
+import com.example.xianyu.repository.ProductRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商品全文检索（内存倒排索引）
+ * 索引字段：标题、描述、分类；中日韩文字按二元切分（同时保留单字），英文数字按词切分
+ * 排序：BM25，多个关键词之间为“且”的关系
+ * 英文数字关键词按子串匹配词表（如 "iph"、"13" 都能命中 "iphone13"），与原来的 LIKE 查询行为一致
+ * 只收录在售商品，发布/编辑/下架/售出/删除时由 ProductService 同步维护
+ */
+@Component
+public class ProductSearchIndex {
+
+    /**
+     * BM25 参数
+     */
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    /**
+     * 字段权重：标题命中比描述命中更重要
+     */
+    private static final int TITLE_WEIGHT = 3;
+    private static final int CATEGORY_WEIGHT = 2;
+    private static final int DESCRIPTION_WEIGHT = 1;
+
+    private final ProductRepository productRepository;
+
+    /**
+     * 倒排表：词 -> (商品ID -> 加权词频)
+     */
+    private final Map<String, Map<Long, Integer>> postings = new HashMap<>();
+
+    /**
+     * 正排表：商品ID -> 文档信息（用于删除和计算文档长度）
+     */
+    private final Map<Long, DocEntry> docs = new HashMap<>();
+
+    /**
+     * 词表中的英文数字词（子串匹配时遍历）
+     */
+    private final Set<String> words = new HashSet<>();
+
+    private long totalLength;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile boolean ready;
+
+    /**
+     * 全量构建期间收到的 index / remove，构建完成后按顺序重放（持有写锁访问；不在构建时为 null）
+     */
+    private List<Runnable> replay;
+
+    public ProductSearchIndex(ProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    /**
+     * 应用启动后全量构建索引
+     * 此时已经在接收请求：查询之前就开始记录 index / remove，清空重建后重放，
+     * 查询与加写锁之间发布、下架的商品不会被查询结果覆盖
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            replay = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        List<Product> onSale;
+        try {
+            onSale = productRepository.findByStatus(0);
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                replay = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            docs.clear();
+            words.clear();
+            totalLength = 0;
+            for (Product p : onSale) {
+                addInternal(p);
+            }
+            for (Runnable op : replay) {
+                op.run();
+            }
+            replay = null;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 索引是否已构建完成（未完成时调用方应回退到数据库查询）
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 新增或重建某个商品的索引；非在售商品会被移出索引
+     */
+    public void index(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            indexInternal(product);
+            if (replay != null) {
+                replay.add(() -> indexInternal(product));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void indexInternal(Product product) {
+        removeInternal(product.getId());
+        if (product.getStatus() == null || product.getStatus() == 0) {
+            addInternal(product);
+        }
+    }
+
+    /**
+     * 移除某个商品的索引
+     */
+    public void remove(Long productId) {
+        if (productId == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            removeInternal(productId);
+            if (replay != null) {
+                replay.add(() -> removeInternal(productId));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 关键字检索，返回按相关度降序排列的商品ID
+     */
+    public List<Long> search(String keyword) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenizeQuery(keyword)));
+        if (terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+        lock.readLock().lock();
+        try {
+            List<Map<Long, Integer>> lists = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                Map<Long, Integer> list = isCjk(term.codePointAt(0)) ? postings.get(term) : matchWords(term);
+                if (list == null) {
+                    // 任意一个词不存在，则没有同时包含所有词的商品
+                    return new ArrayList<>();
+                }
+                lists.add(list);
+            }
+            // 从最短的倒排表开始求交集
+            lists.sort(Comparator.comparingInt(Map::size));
+            int n = docs.size();
+            double avgLength = n == 0 ? 1 : (double) totalLength / n;
+            double[] idf = new double[lists.size()];
+            for (int i = 0; i < lists.size(); i++) {
+                int df = lists.get(i).size();
+                idf[i] = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+            }
+
+            Map<Long, Double> scores = new HashMap<>();
+            outer:
+            for (Map.Entry<Long, Integer> e : lists.get(0).entrySet()) {
+                Long docId = e.getKey();
+                double norm = K1 * (1 - B + B * docs.get(docId).length / avgLength);
+                double score = 0;
+                for (int i = 0; i < lists.size(); i++) {
+                    Integer tf = i == 0 ? e.getValue() : lists.get(i).get(docId);
+                    if (tf == null) {
+                        continue outer;
+                    }
+                    score += idf[i] * tf * (K1 + 1) / (tf + norm);
+                }
+                scores.put(docId, score);
+            }
+
+            List<Long> result = new ArrayList<>(scores.keySet());
+            // 分数相同时，新发布的商品（ID 较大）排前面
+            result.sort((a, b) -> {
+                int c = Double.compare(scores.get(b), scores.get(a));
+                return c != 0 ? c : Long.compare(b, a);
+            });
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 包含 term 的所有英文数字词的倒排表之并（词频相加）；只有一个词命中时直接返回其倒排表，调用方不得修改
+     */
+    private Map<Long, Integer> matchWords(String term) {
+        Map<Long, Integer> merged = null;
+        boolean shared = false;
+        for (String word : words) {
+            if (!word.contains(term)) {
+                continue;
+            }
+            Map<Long, Integer> list = postings.get(word);
+            if (merged == null) {
+                merged = list;
+                shared = true;
+                continue;
+            }
+            if (shared) {
+                merged = new HashMap<>(merged);
+                shared = false;
+            }
+            for (Map.Entry<Long, Integer> e : list.entrySet()) {
+                merged.merge(e.getKey(), e.getValue(), Integer::sum);
+            }
+        }
+        return merged;
+    }
+
+    private void addInternal(Product p) {
+        Map<String, Integer> tf = new HashMap<>();
+        int length = 0;
+        length += accumulate(tf, p.getTitle(), TITLE_WEIGHT);
+        length += accumulate(tf, p.getCategory(), CATEGORY_WEIGHT);
+        length += accumulate(tf, p.getDescription(), DESCRIPTION_WEIGHT);
+        if (tf.isEmpty()) {
+            return;
+        }
+        Long id = p.getId();
+        for (Map.Entry<String, Integer> e : tf.entrySet()) {
+            postings.computeIfAbsent(e.getKey(), k -> new HashMap<>()).put(id, e.getValue());
+            if (!isCjk(e.getKey().codePointAt(0))) {
+                words.add(e.getKey());
+            }
+        }
+        docs.put(id, new DocEntry(tf.keySet().toArray(new String[0]), length));
+        totalLength += length;
+    }
+
+    private void removeInternal(Long id) {
+        DocEntry entry = docs.remove(id);
+        if (entry == null) {
+            return;
+        }
+        for (String term : entry.terms) {
+            Map<Long, Integer> list = postings.get(term);
+            if (list != null) {
+                list.remove(id);
+                if (list.isEmpty()) {
+                    postings.remove(term);
+                    words.remove(term);
+                }
+            }
+        }
+        totalLength -= entry.length;
+    }
+
+    private static int accumulate(Map<String, Integer> tf, String text, int weight) {
+        List<String> tokens = tokenize(text, true);
+        for (String token : tokens) {
+            tf.merge(token, weight, Integer::sum);
+        }
+        return tokens.size() * weight;
+    }
+
+    /**
+     * 查询分词：中文连续两个字以上只取二元词，单独一个字时取单字
+     */
+    static List<String> tokenizeQuery(String text) {
+        return tokenize(text, false);
+    }
+
+    /**
+     * 分词
+     *
+     * @param withUnigrams 是否为中日韩文字额外输出单字（建索引时为 true，保证单字查询也能命中）
+     */
+    static List<String> tokenize(String text, boolean withUnigrams) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String s = text.toLowerCase(Locale.ROOT);
+        int n = s.length();
+        int i = 0;
+        while (i < n) {
+            int cp = s.codePointAt(i);
+            if (isCjk(cp)) {
+                List<String> run = new ArrayList<>();
+                while (i < n && isCjk(cp = s.codePointAt(i))) {
+                    run.add(new String(Character.toChars(cp)));
+                    i += Character.charCount(cp);
+                }
+                if (run.size() == 1 || withUnigrams) {
+                    tokens.addAll(run);
+                }
+                for (int j = 0; j + 1 < run.size(); j++) {
+                    tokens.add(run.get(j) + run.get(j + 1));
+                }
+            } else if (Character.isLetterOrDigit(cp)) {
+                int start = i;
+                while (i < n && Character.isLetterOrDigit(cp = s.codePointAt(i)) && !isCjk(cp)) {
+                    i += Character.charCount(cp);
+                }
+                tokens.add(s.substring(start, i));
+            } else {
+                i += Character.charCount(cp);
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static final class DocEntry {
+        private final String[] terms;
+        private final int length;
+
+        private DocEntry(String[] terms, int length) {
+            this.terms = terms;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 当前索引的商品数量
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
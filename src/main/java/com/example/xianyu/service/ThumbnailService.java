@@ -0,0 +1,451 @@
+package com.example.xianyu.service;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 上传图片缩略图
+ * - 上传后把原图交给 thumbnailExecutor，每张原图只解码一次，依次缩放出各个固定宽度的 JPEG（不含 EXIF 等元数据）
+ * - 缩略图路径由原图路径推导：/uploads/a/b.png 的 400 宽缩略图为 /uploads/thumbs/400/a/b.jpg
+ * - 模板通过 ${@thumbnailService.url(原图URL, 宽度)} 取缩略图地址；还没生成时返回原图，并补交生成任务（历史图片也会逐步生成）
+ */
+@Service
+public class ThumbnailService {
+
+    /**
+     * 缩略图宽度（像素），模板请求的宽度向上取最接近的一档
+     */
+    public static final int[] WIDTHS = {200, 400, 800};
+
+    static final String URL_PREFIX = "/uploads/";
+    static final String THUMB_DIR = "thumbs";
+
+    /**
+     * 超过这个像素数的图片不生成缩略图（解码需要的内存过大）
+     */
+    private static final long MAX_PIXELS = 40_000_000L;
+
+    private static final float JPEG_QUALITY = 0.8f;
+
+    private static final int LOCK_STRIPES = 64;
+
+
+    private final TaskExecutor executor;
+    private final HotImageCache imageCache;
+
+    @Value("${upload.dir:${user.dir}/uploads}")
+    private String uploadDir;
+
+    /**
+     * 原图URL -> 是否已有缩略图（true 已生成；false 无法生成，如格式不支持、损坏或过大，不再重试；
+     * 读写文件出错等临时失败不记录，之后页面访问时会再次提交）
+     */
+    private final Map<String, Boolean> states = new ConcurrentHashMap<>();
+
+    /**
+     * 已提交、尚未完成的原图
+     */
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 按原图URL分段的锁：写缩略图与删除缩略图互斥
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public ThumbnailService(@Qualifier("thumbnailExecutor") TaskExecutor executor, HotImageCache imageCache) {
+        this.executor = executor;
+        this.imageCache = imageCache;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * 模板使用：原图的缩略图地址，缩略图还没生成时返回原图
+     */
+    public String url(String originalUrl, int width) {
+        if (originalUrl == null) {
+            return null;
+        }
+        String url = originalUrl.trim();
+        if (!isUpload(url)) {
+            return url;
+        }
+        Boolean state = states.get(url);
+        if (state == null) {
+            // 重启后第一次访问：看磁盘上是否已经有了（最小的一档最后写），没有就补交生成任务
+            synchronized (lockOf(url)) {
+                state = Files.exists(derivativePath(url, WIDTHS[0])) ? Boolean.TRUE : null;
+                if (state != null) {
+                    states.put(url, state);
+                }
+            }
+            if (state == null) {
+                submit(url);
+                return url;
+            }
+        }
+        return state ? derivativeUrl(url, pickWidth(width)) : url;
+    }
+
+    /**
+     * 上传保存原图后调用，异步生成缩略图；队列已满时放弃，之后页面访问时会再次提交
+     */
+    public void submit(String originalUrl) {
+        if (!isUpload(originalUrl) || !pending.add(originalUrl)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(originalUrl);
+                } finally {
+                    pending.remove(originalUrl);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            pending.remove(originalUrl);
+        }
+    }
+
+    /**
+     * 删除原图时调用（原图文件已删除），删除它的所有缩略图；正在生成的任务写完后才删除，不会留下缩略图
+     */
+    public void deleteDerivatives(String originalUrl) {
+        if (!isUpload(originalUrl)) {
+            return;
+        }
+        synchronized (lockOf(originalUrl)) {
+            states.remove(originalUrl);
+            deleteFiles(originalUrl);
+        }
+    }
+
+    private void deleteFiles(String originalUrl) {
+        for (int width : WIDTHS) {
+            Path path = derivativePath(originalUrl, width);
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.err.println("删除缩略图失败: " + path + " - " + e.getMessage());
+            }
+            imageCache.invalidate(derivativeUrl(originalUrl, width));
+        }
+    }
+
+    /**
+     * 解码原图一次，从大到小依次缩放（每档都从上一档缩小，比每次从原图缩放更快）
+     * - 格式不支持、损坏或过大的图片记为 false，不再重试；其他读写错误不记录状态，之后再次提交时重试
+     * - 写文件和记录状态在锁内进行，并先确认原图仍然存在：原图已删除时不写缩略图
+     */
+    private void generate(String originalUrl) {
+        Path source = Paths.get(uploadDir, originalUrl.substring(URL_PREFIX.length())).toAbsolutePath();
+        BufferedImage image;
+        try {
+            image = decode(source);
+        } catch (IIOException | RuntimeException e) {
+            // 解码器报错：图片本身有问题
+            System.err.println("无法解码图片，不生成缩略图: " + source + " - " + e.getMessage());
+            markUndecodable(originalUrl, source);
+            return;
+        } catch (IOException e) {
+            System.err.println("读取图片失败，稍后重试: " + source + " - " + e.getMessage());
+            return;
+        }
+        if (image == null) {
+            markUndecodable(originalUrl, source);
+            return;
+        }
+        synchronized (lockOf(originalUrl)) {
+            if (!Files.exists(source)) {
+                return;
+            }
+            try {
+                for (int i = WIDTHS.length - 1; i >= 0; i--) {
+                    int width = WIDTHS[i];
+                    if (image.getWidth() > width) {
+                        image = scale(image, width);
+                    }
+                    writeJpeg(image, derivativePath(originalUrl, width));
+                    imageCache.invalidate(derivativeUrl(originalUrl, width));
+                }
+                states.put(originalUrl, Boolean.TRUE);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("生成缩略图失败，稍后重试: " + source + " - " + e.getMessage());
+                // 不留下只有部分尺寸的缩略图（url() 以最小一档是否存在判断是否已生成）
+                deleteFiles(originalUrl);
+            }
+        }
+    }
+
+    /**
+     * 原图仍存在时才记为无法生成（原图不存在可能是正在被删除）
+     */
+    private void markUndecodable(String originalUrl, Path source) {
+        synchronized (lockOf(originalUrl)) {
+            if (Files.exists(source)) {
+                states.put(originalUrl, Boolean.FALSE);
+            }
+        }
+    }
+
+    /**
+     * 先读尺寸，过大的图片不解码；GIF 只取第一帧。
+     * JPEG 按 EXIF 方向旋转 / 翻转（浏览器显示原图时会这样做，缩略图不带元数据，必须先转正）
+     */
+    private static BufferedImage decode(Path source) throws IOException {
+        if (!Files.exists(source)) {
+            return null;
+        }
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > MAX_PIXELS) {
+                    return null;
+                }
+                int orientation = "jpeg".equalsIgnoreCase(reader.getFormatName()) ? exifOrientation(source) : 1;
+                return orient(reader.read(0), orientation);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * JPEG 中 EXIF（APP1）的 Orientation 标签，取值 1～8；没有或无法解析时为 1（不变换）。
+     * 直接按段读取文件头，不经过 ImageIO 的元数据解析（APP1 在 JFIF APP0 之前等常见写法会被它拒绝）
+     */
+    private static int exifOrientation(Path source) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+            if (in.readUnsignedShort() != 0xFFD8) {
+                return 1;
+            }
+            while (true) {
+                int marker = in.readUnsignedShort();
+                // 到达图像数据（SOS）或不是合法的段标记，之后不会再有 EXIF
+                if (marker == 0xFFDA || (marker & 0xFF00) != 0xFF00) {
+                    return 1;
+                }
+                int length = in.readUnsignedShort() - 2;
+                if (length < 0) {
+                    return 1;
+                }
+                if (marker == 0xFFE1) {
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    int orientation = exifOrientation(data);
+                    if (orientation != 0) {
+                        return orientation;
+                    }
+                } else {
+                    in.skipNBytes(length);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // 文件头损坏不影响生成缩略图，按原方向处理
+            return 1;
+        }
+    }
+
+    /**
+     * 从 APP1 段内容（"Exif\0\0" + TIFF）中读取 IFD0 的 Orientation（0x0112）；不是 EXIF 段或没有该标签时为 0
+     */
+    static int exifOrientation(byte[] data) {
+        if (data.length < 14 || data[0] != 'E' || data[1] != 'x' || data[2] != 'i' || data[3] != 'f') {
+            return 0;
+        }
+        int tiff = 6;
+        boolean littleEndian;
+        if (data[tiff] == 'I' && data[tiff + 1] == 'I') {
+            littleEndian = true;
+        } else if (data[tiff] == 'M' && data[tiff + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return 0;
+        }
+        long ifd = tiff + readInt(data, tiff + 4, littleEndian);
+        if (ifd < 0 || ifd + 2 > data.length) {
+            return 0;
+        }
+        int count = readShort(data, (int) ifd, littleEndian);
+        for (int i = 0; i < count; i++) {
+            int entry = (int) ifd + 2 + i * 12;
+            if (entry + 12 > data.length) {
+                return 0;
+            }
+            if (readShort(data, entry, littleEndian) == 0x0112) {
+                int value = readShort(data, entry + 8, littleEndian);
+                return value >= 1 && value <= 8 ? value : 0;
+            }
+        }
+        return 0;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        int a = data[offset] & 0xFF;
+        int b = data[offset + 1] & 0xFF;
+        return littleEndian ? (b << 8) | a : (a << 8) | b;
+    }
+
+    private static long readInt(byte[] data, int offset, boolean littleEndian) {
+        long high = readShort(data, littleEndian ? offset + 2 : offset, littleEndian);
+        long low = readShort(data, littleEndian ? offset : offset + 2, littleEndian);
+        return (high << 16) | low;
+    }
+
+    /**
+     * 按 EXIF 方向把图片转正：2 水平翻转，3 旋转 180°，4 垂直翻转，5 转置，6 顺时针 90°，7 反转置，8 逆时针 90°
+     */
+    static BufferedImage orient(BufferedImage image, int orientation) {
+        if (orientation <= 1 || orientation > 8) {
+            return image;
+        }
+        int w = image.getWidth();
+        int h = image.getHeight();
+        AffineTransform transform = switch (orientation) {
+            case 2 -> new AffineTransform(-1, 0, 0, 1, w, 0);
+            case 3 -> new AffineTransform(-1, 0, 0, -1, w, h);
+            case 4 -> new AffineTransform(1, 0, 0, -1, 0, h);
+            case 5 -> new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6 -> new AffineTransform(0, 1, -1, 0, h, 0);
+            case 7 -> new AffineTransform(0, -1, -1, 0, h, w);
+            default -> new AffineTransform(0, -1, 1, 0, 0, w);
+        };
+        boolean swap = orientation >= 5;
+        BufferedImage target = new BufferedImage(swap ? h : w, swap ? w : h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, target.getWidth(), target.getHeight());
+            g.drawImage(image, transform, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    /**
+     * 缩放到指定宽度：先逐次减半到目标宽度的两倍以内，再双线性插值到目标宽度，大幅缩小时不会出现明显锯齿
+     */
+    private static BufferedImage scale(BufferedImage source, int width) {
+        BufferedImage image = source;
+        while (image.getWidth() / 2 >= width) {
+            image = resize(image, image.getWidth() / 2);
+        }
+        return resize(image, width);
+    }
+
+    /**
+     * 一次双线性缩放，透明背景填白（JPEG 没有透明通道）
+     */
+    private static BufferedImage resize(BufferedImage source, int width) {
+        int height = Math.max(1, (int) Math.round((double) source.getHeight() * width / source.getWidth()));
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    /**
+     * 写 JPEG：只写像素，不带原图的任何元数据；先写临时文件再改名，页面不会读到写了一半的文件
+     */
+    private static void writeJpeg(BufferedImage image, Path target) throws IOException {
+        if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+            image = resize(image, image.getWidth());
+        }
+        Files.createDirectories(target.getParent());
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(tmp.toFile())) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 只处理上传目录下的原图（不含缩略图本身，不允许跳出上传目录）
+     */
+    private static boolean isUpload(String url) {
+        return url != null && url.startsWith(URL_PREFIX) && !url.startsWith(URL_PREFIX + THUMB_DIR + "/")
+                && !url.contains("..");
+    }
+
+    private Object lockOf(String originalUrl) {
+        return locks[originalUrl.hashCode() & (LOCK_STRIPES - 1)];
+    }
+
+    private static int pickWidth(int width) {
+        for (int w : WIDTHS) {
+            if (w >= width) {
+                return w;
+            }
+        }
+        return WIDTHS[WIDTHS.length - 1];
+    }
+
+    static String derivativeUrl(String originalUrl, int width) {
+        return URL_PREFIX + THUMB_DIR + "/" + width + "/" + jpegName(originalUrl.substring(URL_PREFIX.length()));
+    }
+
+    private Path derivativePath(String originalUrl, int width) {
+        return Paths.get(uploadDir, THUMB_DIR, String.valueOf(width), jpegName(originalUrl.substring(URL_PREFIX.length())))
+                .toAbsolutePath();
+    }
+
+    private static String jpegName(String relativePath) {
+        int slash = relativePath.lastIndexOf('/');
+        int dot = relativePath.lastIndexOf('.');
+        return (dot > slash ? relativePath.substring(0, dot) : relativePath) + ".jpg";
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.xianyu.service;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * 用户未读消息数缓存（内存）
+ * - 以 long 类型的用户ID为键，按用户ID分段加锁，段内使用开放寻址哈希表，避免装箱和全局锁竞争
+ * - 未命中时由调用方提供的 loader 从数据库加载；发送消息、标记已读时直接增减计数，不再查询数据库
+ * - 每次计数变化都会分配一个新的版本号，用作 /messages/unread-count、/messages/api 的 ETag
+ * - 事务中的变更先用 begin 登记，提交后由 end 生效（回滚则丢弃）；登记期间同一分段的加载结果不写入缓存，
+ *   避免缓存读到未提交或刚提交、尚未计入的行
+ * - 闲置超过 IDLE_MILLIS 的用户定时移除，分段中剩余很少时缩小哈希表；再次读取时重新加载并分配新版本号
+ */
+@Component
+public class UnreadCounterStore {
+
+    /**
+     * 分段数量（2 的幂）
+     */
+    private static final int STRIPES = 64;
+
+    /**
+     * 未命中时加载期间若同一分段被修改，最多重试的次数；超过后本次结果不写入缓存
+     */
+    private static final int MAX_LOAD_ATTEMPTS = 3;
+
+    /**
+     * 缓存的闲置保留时间
+     */
+    static final long IDLE_MILLIS = 30 * 60 * 1000L;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * 全局版本号，以启动时间为起点，避免重启后与浏览器缓存的旧 ETag 相同
+     */
+    private final AtomicLong versionSeq = new AtomicLong(System.currentTimeMillis());
+
+    public UnreadCounterStore() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * 读取未读数和版本号，未命中时调用 loader 加载
+     */
+    public Snapshot get(long userId, LongUnaryOperator loader) {
+        Stripe stripe = stripeOf(userId);
+        for (int attempt = 0; ; attempt++) {
+            long mods;
+            synchronized (stripe) {
+                int slot = stripe.find(userId);
+                if (slot >= 0) {
+                    stripe.accessed[slot] = System.currentTimeMillis();
+                    return new Snapshot(stripe.counts[slot], stripe.versions[slot]);
+                }
+                mods = stripe.mods;
+            }
+            // 在锁外查询数据库
+            long count = Math.max(0, loader.applyAsLong(userId));
+            long version = versionSeq.incrementAndGet();
+            synchronized (stripe) {
+                int slot = stripe.find(userId);
+                if (slot >= 0) {
+                    // 其他线程已经加载
+                    stripe.accessed[slot] = System.currentTimeMillis();
+                    return new Snapshot(stripe.counts[slot], stripe.versions[slot]);
+                }
+                if (stripe.mods == mods && stripe.pending == 0) {
+                    // 加载期间没有并发修改、也没有进行中的事务，结果可以安全写入缓存
+                    stripe.put(userId, count, version, System.currentTimeMillis());
+                    return new Snapshot(count, version);
+                }
+                if (attempt + 1 >= MAX_LOAD_ATTEMPTS) {
+                    return new Snapshot(count, version);
+                }
+            }
+        }
+    }
+
+    /**
+     * 未读数增减（未缓存的用户只记录修改，下次读取时从数据库加载）
+     */
+    public void add(long userId, long delta) {
+        Stripe stripe = stripeOf(userId);
+        synchronized (stripe) {
+            stripe.mods++;
+            int slot = stripe.find(userId);
+            if (slot >= 0) {
+                stripe.counts[slot] = Math.max(0, stripe.counts[slot] + delta);
+                stripe.versions[slot] = versionSeq.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 登记一次进行中的变更（在事务内调用），必须在事务结束时调用 end
+     */
+    public void begin(long userId) {
+        Stripe stripe = stripeOf(userId);
+        synchronized (stripe) {
+            stripe.pending++;
+        }
+    }
+
+    /**
+     * 事务结束：提交时增减计数并分配新版本号，回滚时只撤销登记
+     */
+    public void end(long userId, long delta, boolean committed) {
+        Stripe stripe = stripeOf(userId);
+        synchronized (stripe) {
+            stripe.pending--;
+            stripe.mods++;
+            int slot = stripe.find(userId);
+            if (committed && slot >= 0) {
+                stripe.counts[slot] = Math.max(0, stripe.counts[slot] + delta);
+                stripe.versions[slot] = versionSeq.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 使缓存失效，下次读取时从数据库重新加载（如删除了消息）
+     */
+    public void invalidate(long userId) {
+        Stripe stripe = stripeOf(userId);
+        synchronized (stripe) {
+            stripe.mods++;
+            stripe.remove(userId);
+        }
+    }
+
+    /**
+     * 移除闲置的用户；移除不改变数据库中的未读数，进行中的加载和事务不受影响
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void evictIdle() {
+        long idleBefore = System.currentTimeMillis() - IDLE_MILLIS;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.evictIdle(idleBefore);
+            }
+        }
+    }
+
+    private Stripe stripeOf(long userId) {
+        return stripes[(int) mix(userId) & (STRIPES - 1)];
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * 未读数及其版本号
+     */
+    public record Snapshot(long count, long version) {
+    }
+
+    /**
+     * 一个分段：线性探测的开放寻址哈希表，所有访问都在持有该分段锁时进行
+     */
+    private static final class Stripe {
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private static final int MIN_CAPACITY = 16;
+
+        private long[] keys = newKeys(MIN_CAPACITY);
+        private long[] counts = new long[MIN_CAPACITY];
+        private long[] versions = new long[MIN_CAPACITY];
+
+        /**
+         * 最近一次读取或写入缓存的时间
+         */
+        private long[] accessed = new long[MIN_CAPACITY];
+        private int size;
+
+        /**
+         * 修改次数，用于检测未命中加载期间的并发修改
+         */
+        private long mods;
+
+        /**
+         * 进行中（已 begin、尚未 end）的变更数
+         */
+        private int pending;
+
+        private static long[] newKeys(int capacity) {
+            long[] k = new long[capacity];
+            Arrays.fill(k, EMPTY);
+            return k;
+        }
+
+        private int find(long key) {
+            int mask = keys.length - 1;
+            for (int i = (int) (mix(key) >>> 6) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return i;
+                }
+                if (keys[i] == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        private void put(long key, long count, long version, long now) {
+            int slot = find(key);
+            if (slot < 0) {
+                if ((size + 1) * 4 > keys.length * 3) {
+                    resize(keys.length * 2);
+                }
+                slot = insertSlot(key);
+                keys[slot] = key;
+                size++;
+            }
+            counts[slot] = count;
+            versions[slot] = version;
+            accessed[slot] = now;
+        }
+
+        private int insertSlot(long key) {
+            int mask = keys.length - 1;
+            int i = (int) (mix(key) >>> 6) & mask;
+            while (keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private void remove(long key) {
+            int slot = find(key);
+            if (slot < 0) {
+                return;
+            }
+            // 删除后将后续同一探测链上的元素前移，保持查找不中断
+            int mask = keys.length - 1;
+            int hole = slot;
+            for (int i = (hole + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+                int home = (int) (mix(keys[i]) >>> 6) & mask;
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    counts[hole] = counts[i];
+                    versions[hole] = versions[i];
+                    accessed[hole] = accessed[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = EMPTY;
+            size--;
+        }
+
+        /**
+         * 移除 idleBefore 之前未访问的元素；剩余元素不足容量的 1/8 时缩小哈希表
+         */
+        private void evictIdle(long idleBefore) {
+            int live = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY && accessed[i] >= idleBefore) {
+                    live++;
+                }
+            }
+            if (live == size) {
+                return;
+            }
+            int capacity = keys.length;
+            while (capacity > MIN_CAPACITY && live * 8 < capacity) {
+                capacity >>>= 1;
+            }
+            // 重新插入保留的元素，顺带去掉移除留下的探测链
+            rehash(capacity, idleBefore);
+            size = live;
+        }
+
+        private void resize(int capacity) {
+            rehash(capacity, Long.MIN_VALUE);
+        }
+
+        private void rehash(int capacity, long idleBefore) {
+            long[] oldKeys = keys;
+            long[] oldCounts = counts;
+            long[] oldVersions = versions;
+            long[] oldAccessed = accessed;
+            keys = newKeys(capacity);
+            counts = new long[capacity];
+            versions = new long[capacity];
+            accessed = new long[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY && oldAccessed[i] >= idleBefore) {
+                    int slot = insertSlot(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                    versions[slot] = oldVersions[i];
+                    accessed[slot] = oldAccessed[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.xianyu.service;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * 未读消息数推送（Server-Sent Events）
+ * 每个登录会话保持一条连接（同一会话多个标签页最多 MAX_PER_SESSION 条），
+ * 只有发送消息或标记已读时才推送最新未读数，空闲时定时发送心跳保持连接
+ */
+@Component
+public class UnreadPushService {
+
+    /**
+     * 连接超时时间，超时后浏览器 EventSource 会自动重连
+     */
+    private static final long TIMEOUT_MILLIS = 30 * 60 * 1000L;
+
+    /**
+     * 同一会话允许的最大连接数，超过时关闭最早的连接
+     */
+    private static final int MAX_PER_SESSION = 3;
+
+    /**
+     * 用户ID -> (会话ID -> 该会话的连接)
+     */
+    private final Map<Long, Map<String, Deque<SseEmitter>>> emitters = new ConcurrentHashMap<>();
+
+    /**
+     * 建立推送连接，并立即推送一次当前未读数
+     */
+    public SseEmitter subscribe(Long userId, String sessionId, long unreadCount) {
+        SseEmitter emitter = new SseEmitter(TIMEOUT_MILLIS);
+        List<Deque<SseEmitter>> holder = new ArrayList<>(1);
+        emitters.compute(userId, (k, sessions) -> {
+            Map<String, Deque<SseEmitter>> map = sessions != null ? sessions : new ConcurrentHashMap<>();
+            Deque<SseEmitter> list = map.computeIfAbsent(sessionId, s -> new ConcurrentLinkedDeque<>());
+            list.addLast(emitter);
+            holder.add(list);
+            return map;
+        });
+        Deque<SseEmitter> sessionEmitters = holder.get(0);
+        while (sessionEmitters.size() > MAX_PER_SESSION) {
+            SseEmitter oldest = sessionEmitters.pollFirst();
+            if (oldest != null) {
+                // 通知旧连接不要自动重连，由页面改用轮询
+                trySend(oldest, SseEmitter.event().name("evicted").data(""));
+                oldest.complete();
+            }
+        }
+        Runnable cleanup = () -> remove(userId, sessionId, emitter);
+        emitter.onCompletion(cleanup);
+        emitter.onTimeout(cleanup);
+        emitter.onError(e -> cleanup.run());
+        if (!trySend(emitter, unreadEvent(unreadCount))) {
+            cleanup.run();
+        }
+        return emitter;
+    }
+
+    /**
+     * 用户当前是否有在线的推送连接（没有时无需计算未读数）
+     */
+    public boolean hasSubscribers(Long userId) {
+        Map<String, Deque<SseEmitter>> sessions = emitters.get(userId);
+        return sessions != null && !sessions.isEmpty();
+    }
+
+    /**
+     * 向用户的所有连接推送未读数
+     */
+    public void push(Long userId, long unreadCount) {
+        Map<String, Deque<SseEmitter>> sessions = emitters.get(userId);
+        if (sessions == null) {
+            return;
+        }
+        sessions.forEach((sessionId, list) -> {
+            for (SseEmitter emitter : list) {
+                if (!trySend(emitter, unreadEvent(unreadCount))) {
+                    remove(userId, sessionId, emitter);
+                }
+            }
+        });
+    }
+
+    /**
+     * 心跳：防止代理或浏览器因连接空闲而断开
+     */
+    @Scheduled(fixedRate = 20_000)
+    public void heartbeat() {
+        List<Runnable> dead = new ArrayList<>();
+        emitters.forEach((userId, sessions) -> sessions.forEach((sessionId, list) -> {
+            for (SseEmitter emitter : list) {
+                if (!trySend(emitter, SseEmitter.event().comment("heartbeat"))) {
+                    dead.add(() -> remove(userId, sessionId, emitter));
+                }
+            }
+        }));
+        dead.forEach(Runnable::run);
+    }
+
+    private SseEmitter.SseEventBuilder unreadEvent(long unreadCount) {
+        return SseEmitter.event().name("unread").data(Map.of("unreadCount", unreadCount));
+    }
+
+    private boolean trySend(SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            // 连接已断开或已完成
+            return false;
+        }
+    }
+
+    private void remove(Long userId, String sessionId, SseEmitter emitter) {
+        emitters.computeIfPresent(userId, (k, sessions) -> {
+            Deque<SseEmitter> list = sessions.get(sessionId);
+            if (list != null) {
+                list.remove(emitter);
+                if (list.isEmpty()) {
+                    sessions.remove(sessionId);
+                }
+            }
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+}
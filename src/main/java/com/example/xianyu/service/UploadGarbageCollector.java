@@ -0,0 +1,376 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.common.LongHashSet;
+import com.example.xianyu.repository.PondCommentRepository;
+import com.example.xianyu.repository.PondPostRepository;
+import com.example.xianyu.repository.ProductRepository;
+import com.example.xianyu.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 孤儿上传文件回收（标记-清除）
+ * 商品编辑中途失败、发动态中途失败、更换头像等情况会留下没有任何引用的文件：
+ * - 标记：按ID键集分页扫描商品图片、动态图片、用户 / 动态 / 评论中的头像，把地址（及其各档缩略图地址）的 64 位哈希
+ *   放入 LongHashSet，不在内存中保留地址字符串
+ * - 清除：遍历上传目录，修改时间早于宽限期、且不在标记集合中的文件即为孤儿；原图经 UploadStorageService 删除
+ *   （按内容寻址的文件在文件锁内复查并删除 stored_file 记录），缩略图和临时目录中的残留文件直接删除
+ * - 默认只演练（upload.gc.dry-run），统计孤儿文件并记录样例，不删除；确认报告无误后再关闭
+ * - 每秒最多处理 upload.gc.files-per-second 个文件，避免与正常请求争抢磁盘；在 uploadGcExecutor 上执行，不占用调度线程
+ * - 只回收应用自己写入的文件：cas/、thumbs/、tmp/ 下的文件，以及上传目录根和 pond/ 下以 UUID 命名的旧上传文件；
+ *   其他文件（默认头像等手工放置的资源、首页轮播兜底读取的 products/）一律保留，数量和样例计入报告
+ * - 进度和结果通过 status() 查看
+ */
+@Component
+public class UploadGarbageCollector {
+
+    /**
+     * 标记阶段每页扫描的行数
+     */
+    static final int SCAN_PAGE_SIZE = 1000;
+
+    /**
+     * 报告中保留的孤儿文件样例数
+     */
+    static final int SAMPLE_SIZE = 100;
+
+    /**
+     * 可回收的路径（相对上传目录）：内容寻址文件、缩略图、临时文件，以及旧版本以 UUID 命名的上传文件
+     */
+    private static final Pattern MANAGED = Pattern.compile(
+            "^(?:(?:cas|thumbs|tmp)/.+|(?:pond/)?[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}\\.[A-Za-z0-9]+)$");
+
+    private final ProductRepository productRepository;
+    private final PondPostRepository postRepository;
+    private final PondCommentRepository commentRepository;
+    private final UserRepository userRepository;
+    private final UploadStorageService uploadStorageService;
+    private final HotImageCache imageCache;
+    private final TaskExecutor executor;
+
+    @Value("${upload.dir:${user.dir}/uploads}")
+    private String uploadDir;
+
+    @Value("${upload.gc.dry-run:true}")
+    private boolean dryRun;
+
+    @Value("${upload.gc.grace-hours:24}")
+    private long graceHours;
+
+    @Value("${upload.gc.files-per-second:500}")
+    private int filesPerSecond;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile Progress progress = new Progress(true);
+
+    public UploadGarbageCollector(ProductRepository productRepository,
+                                  PondPostRepository postRepository,
+                                  PondCommentRepository commentRepository,
+                                  UserRepository userRepository,
+                                  UploadStorageService uploadStorageService,
+                                  HotImageCache imageCache,
+                                  @Qualifier("uploadGcExecutor") TaskExecutor executor) {
+        this.productRepository = productRepository;
+        this.postRepository = postRepository;
+        this.commentRepository = commentRepository;
+        this.userRepository = userRepository;
+        this.uploadStorageService = uploadStorageService;
+        this.imageCache = imageCache;
+        this.executor = executor;
+    }
+
+    /**
+     * 每天凌晨 4 点半执行（在计数校正之后）；调度线程只负责提交，回收在 uploadGcExecutor 上进行
+     */
+    @Scheduled(cron = "${upload.gc.cron:0 30 4 * * *}")
+    public void collect() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::run);
+        } catch (TaskRejectedException e) {
+            running.set(false);
+        }
+    }
+
+    private void run() {
+        Progress current = new Progress(dryRun);
+        current.startTime = LocalDateTime.now();
+        progress = current;
+        try {
+            // 宽限期从开始标记前算起：标记开始后才写入的文件一定比截止时间新
+            long cutoff = System.currentTimeMillis() - graceHours * 3600_000L;
+            current.phase = "mark";
+            LongHashSet referenced = mark(current);
+            current.phase = "sweep";
+            sweep(referenced, cutoff, current);
+            current.phase = "done";
+            System.err.println("上传文件回收" + (current.dryRun ? "（演练）" : "") + ": 扫描 " + current.filesScanned
+                    + " 个文件，孤儿 " + current.orphans + " 个 / " + current.orphanBytes + " 字节，删除 "
+                    + current.deleted + " 个");
+        } catch (RuntimeException e) {
+            current.phase = "failed";
+            current.errors++;
+            System.err.println("上传文件回收失败: " + e.getMessage());
+        } finally {
+            current.finishTime = LocalDateTime.now();
+            running.set(false);
+        }
+    }
+
+    /**
+     * 最近一次（或正在进行的）回收的进度和结果
+     */
+    public Map<String, Object> status() {
+        Progress p = progress;
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("phase", p.phase);
+        status.put("dryRun", p.dryRun);
+        status.put("startTime", p.startTime);
+        status.put("finishTime", p.finishTime);
+        status.put("rowsScanned", p.rowsScanned);
+        status.put("referencesMarked", p.referencesMarked);
+        status.put("filesScanned", p.filesScanned);
+        status.put("bytesScanned", p.bytesScanned);
+        status.put("skippedRecent", p.skippedRecent);
+        status.put("skippedUnmanaged", p.skippedUnmanaged);
+        status.put("orphans", p.orphans);
+        status.put("orphanBytes", p.orphanBytes);
+        status.put("deleted", p.deleted);
+        status.put("deletedBytes", p.deletedBytes);
+        status.put("errors", p.errors);
+        synchronized (p.samples) {
+            status.put("samples", new ArrayList<>(p.samples));
+        }
+        synchronized (p.unmanagedSamples) {
+            status.put("unmanagedSamples", new ArrayList<>(p.unmanagedSamples));
+        }
+        return status;
+    }
+
+    /**
+     * 标记：所有被引用的地址及其缩略图地址
+     */
+    private LongHashSet mark(Progress current) {
+        LongHashSet referenced = new LongHashSet(1 << 16);
+        scan(productRepository::findImageUrlsAfter, referenced, current);
+        scan(postRepository::findImageUrlsAfter, referenced, current);
+        scan(commentRepository::findAvatarsAfter, referenced, current);
+        scan(userRepository::findAvatarsAfter, referenced, current);
+        return referenced;
+    }
+
+    /**
+     * 按ID键集分页扫描，每行第一列为ID，其余列为逗号分隔的地址
+     */
+    private void scan(BiFunction<Long, Pageable, List<Object[]>> query, LongHashSet referenced, Progress current) {
+        Pageable page = PageRequest.of(0, SCAN_PAGE_SIZE);
+        long afterId = 0;
+        while (true) {
+            List<Object[]> rows = query.apply(afterId, page);
+            for (Object[] row : rows) {
+                for (int i = 1; i < row.length; i++) {
+                    markUrls((String) row[i], referenced, current);
+                }
+            }
+            current.rowsScanned += rows.size();
+            if (rows.size() < SCAN_PAGE_SIZE) {
+                return;
+            }
+            afterId = (Long) rows.get(rows.size() - 1)[0];
+        }
+    }
+
+    private static void markUrls(String urls, LongHashSet referenced, Progress current) {
+        if (urls == null || urls.isEmpty()) {
+            return;
+        }
+        for (String part : urls.split(",")) {
+            String url = part.trim();
+            if (!url.startsWith(ThumbnailService.URL_PREFIX)) {
+                continue;
+            }
+            if (referenced.add(fingerprint(url))) {
+                current.referencesMarked++;
+            }
+            for (int width : ThumbnailService.WIDTHS) {
+                referenced.add(fingerprint(ThumbnailService.derivativeUrl(url, width)));
+            }
+        }
+    }
+
+    /**
+     * 清除：遍历上传目录，删除（或在演练时只统计）早于截止时间且没有被标记的文件
+     */
+    private void sweep(LongHashSet referenced, long cutoff, Progress current) {
+        Path root = Paths.get(uploadDir).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        long started = System.nanoTime();
+        try (Stream<Path> paths = Files.walk(root)) {
+            Iterator<Path> files = paths.iterator();
+            while (files.hasNext()) {
+                Path path = files.next();
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    // 遍历期间被删除
+                    continue;
+                }
+                if (!attrs.isRegularFile()) {
+                    continue;
+                }
+                current.filesScanned++;
+                current.bytesScanned += attrs.size();
+                throttle(current.filesScanned, started);
+                if (attrs.lastModifiedTime().toMillis() >= cutoff) {
+                    current.skippedRecent++;
+                    continue;
+                }
+                String relative = root.relativize(path).toString().replace('\\', '/');
+                if (!MANAGED.matcher(relative).matches()) {
+                    current.skippedUnmanaged++;
+                    current.sampleUnmanaged(ThumbnailService.URL_PREFIX + relative);
+                    continue;
+                }
+                String url = ThumbnailService.URL_PREFIX + relative;
+                if (!relative.startsWith(UploadStorageService.TMP_DIR + "/") && referenced.contains(fingerprint(url))) {
+                    continue;
+                }
+                current.orphans++;
+                current.orphanBytes += attrs.size();
+                current.sample(url);
+                if (!current.dryRun && delete(path, relative, url, cutoff, current)) {
+                    current.deleted++;
+                    current.deletedBytes += attrs.size();
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            current.errors++;
+            System.err.println("遍历上传目录失败: " + root + " - " + e.getMessage());
+        }
+    }
+
+    /**
+     * 原图交给 UploadStorageService（加锁复查、维护 stored_file、同时删除缩略图）；缩略图和临时文件直接删除
+     */
+    private boolean delete(Path path, String relative, String url, long cutoff, Progress current) {
+        if (!relative.startsWith(ThumbnailService.THUMB_DIR + "/") && !relative.startsWith(UploadStorageService.TMP_DIR + "/")) {
+            return uploadStorageService.collect(url, cutoff);
+        }
+        try {
+            boolean deleted = Files.deleteIfExists(path);
+            imageCache.invalidate(url);
+            return deleted;
+        } catch (IOException e) {
+            current.errors++;
+            System.err.println("删除孤儿文件失败: " + path + " - " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 按 files-per-second 限速：处理进度超前于预期时间时暂停
+     */
+    private void throttle(long processed, long startedNanos) {
+        if (filesPerSecond <= 0 || processed % 50 != 0) {
+            return;
+        }
+        long expectedMillis = processed * 1000 / filesPerSecond;
+        long elapsedMillis = (System.nanoTime() - startedNanos) / 1_000_000;
+        if (expectedMillis > elapsedMillis) {
+            try {
+                Thread.sleep(expectedMillis - elapsedMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("上传文件回收被中断", e);
+            }
+        }
+    }
+
+    /**
+     * 地址的 64 位指纹（FNV-1a 再混合）；冲突只会让孤儿文件多保留一轮，不会误删
+     */
+    static long fingerprint(String url) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            h ^= url.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 一次回收的进度；只由执行回收的线程写入
+     */
+    private static final class Progress {
+
+        final boolean dryRun;
+        volatile LocalDateTime startTime;
+        volatile LocalDateTime finishTime;
+        volatile String phase = "idle";
+        volatile long rowsScanned;
+        volatile long referencesMarked;
+        volatile long filesScanned;
+        volatile long bytesScanned;
+        volatile long skippedRecent;
+        volatile long skippedUnmanaged;
+        volatile long orphans;
+        volatile long orphanBytes;
+        volatile long deleted;
+        volatile long deletedBytes;
+        volatile long errors;
+        final List<String> samples = new ArrayList<>();
+        final List<String> unmanagedSamples = new ArrayList<>();
+
+        Progress(boolean dryRun) {
+            this.dryRun = dryRun;
+        }
+
+        void sample(String url) {
+            synchronized (samples) {
+                if (samples.size() < SAMPLE_SIZE) {
+                    samples.add(url);
+                }
+            }
+        }
+
+        void sampleUnmanaged(String url) {
+            synchronized (unmanagedSamples) {
+                if (unmanagedSamples.size() < SAMPLE_SIZE) {
+                    unmanagedSamples.add(url);
+                }
+            }
+        }
+    }
+}
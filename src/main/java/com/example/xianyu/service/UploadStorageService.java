@@ -0,0 +1,266 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.entity.StoredFile;
+import com.example.xianyu.repository.StoredFileRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * 上传文件存储（按内容寻址、去重）
+ * - 上传内容边写临时文件边计算 SHA-256，写完后原子移动到 cas/ab/cd/<hash>.<扩展名>，同样的图片只存一份
+ * - stored_file 记录每个文件的引用数：保存时加一，删除商品图片 / 动态时减一，减到 0 才删除文件（及其缩略图）
+ * - 同一文件的引用数变更和文件移动、删除按哈希分段加锁串行执行，引用数在独立的短事务中立即提交
+ *   （锁在本进程内，按单实例部署设计，与其他内存结构一致）
+ * - 去重之前按 UUID 命名的旧文件不在 stored_file 中，释放时直接删除，与原来的行为相同
+ */
+@Service
+public class UploadStorageService {
+
+    static final String URL_PREFIX = "/uploads/";
+    static final String CAS_DIR = "cas";
+    static final String TMP_DIR = "tmp";
+
+    private static final int LOCK_STRIPES = 64;
+
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    private final StoredFileRepository storedFileRepository;
+    private final ThumbnailService thumbnailService;
+    private final HotImageCache imageCache;
+    private final TransactionTemplate transactionTemplate;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    @Value("${upload.dir:${user.dir}/uploads}")
+    private String uploadDir;
+
+    public UploadStorageService(StoredFileRepository storedFileRepository,
+                                ThumbnailService thumbnailService,
+                                HotImageCache imageCache,
+                                PlatformTransactionManager transactionManager) {
+        this.storedFileRepository = storedFileRepository;
+        this.thumbnailService = thumbnailService;
+        this.imageCache = imageCache;
+        // 引用数立即提交，不跟随调用方的事务；释放在调用方事务提交后执行，此时仍处于 afterCommit 回调中
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * 保存上传文件（引用数加一），返回访问地址；内容相同的文件返回同一个地址
+     */
+    public String store(MultipartFile file) throws IOException {
+        Path root = root();
+        Path tmpDir = root.resolve(TMP_DIR);
+        Files.createDirectories(tmpDir);
+        Path tmp = Files.createTempFile(tmpDir, "upload-", ".part");
+        try {
+            MessageDigest digest = sha256();
+            long size;
+            try (InputStream in = new DigestInputStream(file.getInputStream(), digest);
+                 OutputStream out = Files.newOutputStream(tmp)) {
+                size = in.transferTo(out);
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            String url = URL_PREFIX + CAS_DIR + "/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/"
+                    + hash + extensionOf(file.getOriginalFilename());
+            synchronized (lockOf(hash)) {
+                // 内容相同但扩展名不同时沿用已保存的地址
+                String storedUrl = transactionTemplate.execute(status -> {
+                    storedFileRepository.acquire(hash, url, size, LocalDateTime.now());
+                    return storedFileRepository.findByHash(hash).map(StoredFile::getUrl).orElse(url);
+                });
+                Path target = pathOf(storedUrl);
+                if (!Files.exists(target)) {
+                    try {
+                        Files.createDirectories(target.getParent());
+                        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException e) {
+                        transactionTemplate.executeWithoutResult(status -> storedFileRepository.release(hash));
+                        throw e;
+                    }
+                    thumbnailService.submit(storedUrl);
+                } else {
+                    touch(target);
+                }
+                return storedUrl;
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 释放一个引用；在事务中调用时，事务提交后才执行（回滚则不释放）
+     */
+    public void release(String url) {
+        if (url == null || url.trim().isEmpty()) {
+            return;
+        }
+        String trimmed = url.trim();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            doRelease(trimmed);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                doRelease(trimmed);
+            }
+        });
+    }
+
+    /**
+     * 回收没有任何引用的文件（由 UploadGarbageCollector 调用）：在文件锁内重新检查修改时间，早于 cutoffMillis 才删除；
+     * 按内容寻址的文件同时删除 stored_file 记录。返回是否已删除
+     */
+    public boolean collect(String url, long cutoffMillis) {
+        if (url == null || !url.startsWith(URL_PREFIX) || url.contains("..")) {
+            return false;
+        }
+        String hash = hashOf(url);
+        if (!isManaged(url) || !HASH.matcher(hash).matches()) {
+            return modifiedBefore(pathOf(url), cutoffMillis) && deleteFile(url);
+        }
+        synchronized (lockOf(hash)) {
+            if (!modifiedBefore(pathOf(url), cutoffMillis)) {
+                return false;
+            }
+            transactionTemplate.executeWithoutResult(status -> storedFileRepository.purge(hash));
+            return deleteFile(url);
+        }
+    }
+
+    /**
+     * 是否为按内容寻址保存的文件（有引用计数）
+     */
+    public static boolean isManaged(String url) {
+        return url != null && url.startsWith(URL_PREFIX + CAS_DIR + "/");
+    }
+
+    private void doRelease(String url) {
+        if (!url.startsWith(URL_PREFIX) || url.contains("..")) {
+            return;
+        }
+        try {
+            if (!isManaged(url)) {
+                // 旧文件没有引用计数，直接删除
+                deleteFile(url);
+                return;
+            }
+            String hash = hashOf(url);
+            synchronized (lockOf(hash)) {
+                Boolean unreferenced = transactionTemplate.execute(status -> {
+                    storedFileRepository.release(hash);
+                    return storedFileRepository.deleteIfUnreferenced(hash) > 0;
+                });
+                if (Boolean.TRUE.equals(unreferenced)) {
+                    deleteFile(url);
+                }
+            }
+        } catch (RuntimeException e) {
+            // 释放失败不影响业务，文件最多多留一份
+            System.err.println("释放上传文件失败: " + url + " - " + e.getMessage());
+        }
+    }
+
+    private boolean deleteFile(String url) {
+        Path path = pathOf(url);
+        boolean deleted;
+        try {
+            deleted = Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("删除上传文件失败: " + path + " - " + e.getMessage());
+            deleted = false;
+        }
+        imageCache.invalidate(url);
+        thumbnailService.deleteDerivatives(url);
+        return deleted;
+    }
+
+    /**
+     * 复用已有文件时刷新修改时间：孤儿文件回收按修改时间计算宽限期，刚被重新引用、引用方事务还没提交的文件不会被回收
+     */
+    private static void touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            System.err.println("刷新上传文件修改时间失败: " + path + " - " + e.getMessage());
+        }
+    }
+
+    private static boolean modifiedBefore(Path path, long cutoffMillis) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis() < cutoffMillis;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private Path root() {
+        return Paths.get(uploadDir).toAbsolutePath();
+    }
+
+    private Path pathOf(String url) {
+        return root().resolve(url.substring(URL_PREFIX.length()));
+    }
+
+    private Object lockOf(String hash) {
+        return locks[Integer.parseInt(hash.substring(0, 2), 16) & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * 地址中的哈希：cas/ab/cd/<hash>.ext
+     */
+    private static String hashOf(String url) {
+        String name = url.substring(url.lastIndexOf('/') + 1);
+        int dot = name.indexOf('.');
+        return dot >= 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * 统一为小写扩展名，jpeg 记为 jpg
+     */
+    private static String extensionOf(String filename) {
+        if (filename == null || filename.lastIndexOf('.') < 0) {
+            return "";
+        }
+        String ext = filename.substring(filename.lastIndexOf('.')).toLowerCase(Locale.ROOT);
+        if (ext.equals(".jpeg")) {
+            return ".jpg";
+        }
+        return ext.matches("\\.[a-z0-9]{1,5}") ? ext : "";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
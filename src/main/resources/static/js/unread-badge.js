@@ -0,0 +1,97 @@
+// 全局消息数量提示
+// 优先使用服务端推送（SSE：/messages/unread-stream），未读数变化时才会收到事件；
+// 浏览器不支持或连接被服务端关闭时，回退为轮询 /messages/unread-count
+(function() {
+    const messageBadge = document.getElementById('messageBadge');
+    if (!messageBadge) return;
+
+    const POLL_INTERVAL = 10000;
+    let lastUnreadCount = -1;
+    let source = null;
+    let pollTimer = null;
+
+    function updateMessageBadge(unreadCount) {
+        // 统一转成数字，避免字符串比较问题
+        const count = parseInt(unreadCount, 10) || 0;
+        // 只在状态变化时更新 DOM
+        if (count !== lastUnreadCount) {
+            if (count > 0) {
+                messageBadge.textContent = count > 99 ? '99+' : count;
+                messageBadge.classList.add('show');
+            } else {
+                messageBadge.classList.remove('show');
+            }
+            lastUnreadCount = count;
+        }
+    }
+
+    function checkUnreadMessages() {
+        fetch('/messages/unread-count')
+            .then(res => res.json())
+            .then(data => updateMessageBadge(data.unreadCount || 0))
+            .catch(err => {
+                // 静默失败
+            });
+    }
+
+    function startPolling() {
+        if (pollTimer) return;
+        checkUnreadMessages();
+        pollTimer = setInterval(function() {
+            if (!document.hidden) checkUnreadMessages();
+        }, POLL_INTERVAL);
+    }
+
+    function disconnect() {
+        if (source) {
+            source.close();
+            source = null;
+        }
+    }
+
+    function connect() {
+        if (!window.EventSource) {
+            startPolling();
+            return;
+        }
+        if (source || pollTimer) return;
+        source = new EventSource('/messages/unread-stream');
+        source.addEventListener('unread', function(e) {
+            try {
+                updateMessageBadge(JSON.parse(e.data).unreadCount);
+            } catch (err) {
+                // 忽略格式错误的事件
+            }
+        });
+        // 同一会话打开的标签页过多，服务端关闭了本连接
+        source.addEventListener('evicted', function() {
+            disconnect();
+            startPolling();
+        });
+        source.onerror = function() {
+            // CONNECTING 状态由浏览器自动重连；CLOSED 表示不会再重连（如未登录返回 204）
+            if (source && source.readyState === EventSource.CLOSED) {
+                source = null;
+                startPolling();
+            }
+        };
+    }
+
+    connect();
+
+    // 页面隐藏时断开推送连接，重新可见时恢复（重连后服务端会立即推送一次最新未读数）
+    document.addEventListener('visibilitychange', function() {
+        if (document.hidden) {
+            disconnect();
+        } else if (pollTimer) {
+            checkUnreadMessages();
+        } else {
+            connect();
+        }
+    });
+
+    window.addEventListener('beforeunload', function() {
+        disconnect();
+        if (pollTimer) clearInterval(pollTimer);
+    });
+})();
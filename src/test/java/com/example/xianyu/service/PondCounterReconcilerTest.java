@@ -0,0 +1,76 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.entity.PondPost;
+import com.example.xianyu.entity.User;
+import com.example.xianyu.repository.PondPostRepository;
+import com.example.xianyu.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 计数校正：评论数、点赞数与实际条数不一致时被改回
+ * 需要 MySQL（INSERT IGNORE 等语法），默认不运行；mvn test -Pmysql-it 时连接 application-mysql-it.yml 中的独立测试库
+ */
+@Tag("mysql")
+@SpringBootTest
+@ActiveProfiles("mysql-it")
+class PondCounterReconcilerTest {
+
+    @Autowired
+    private PondCounterReconciler reconciler;
+
+    @Autowired
+    private PondService pondService;
+
+    @Autowired
+    private PondPostRepository postRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private User user;
+    private PondPost post;
+
+    @BeforeEach
+    void setUp() {
+        user = new User();
+        user.setUsername("pond-test-" + UUID.randomUUID().toString().substring(0, 8));
+        user.setPassword("test");
+        user = userRepository.save(user);
+        post = pondService.createPost(user.getId(), "计数校正测试", null, "other", null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pondService.deletePost(post.getId(), user.getId());
+        userRepository.delete(user);
+    }
+
+    @Test
+    void reconcileFixesDriftedCounts() {
+        pondService.addComment(post.getId(), user.getId(), "评论 1", null);
+        pondService.addComment(post.getId(), user.getId(), "评论 2", null);
+        // 模拟计数漂移（如手工改库）
+        jdbcTemplate.update("update pond_post set comment_count = ?, like_count = ? where id = ?",
+                7, 3, post.getId());
+
+        reconciler.reconcile();
+
+        PondPost reloaded = postRepository.findById(post.getId()).orElseThrow();
+        assertThat(reloaded.getCommentCount()).isEqualTo(2);
+        assertThat(reloaded.getLikeCount()).isEqualTo(0);
+    }
+}
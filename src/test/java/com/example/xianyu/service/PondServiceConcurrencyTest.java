@@ -0,0 +1,89 @@
+package com.example.xianyu.service;
+
+import com.example.xianyu.entity.PondPost;
+import com.example.xianyu.entity.User;
+import com.example.xianyu.repository.PondPostRepository;
+import com.example.xianyu.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 评论数原子更新：同一条动态被并发评论时不丢失计数
+ * 需要 MySQL（INSERT IGNORE 等语法），默认不运行；mvn test -Pmysql-it 时连接 application-mysql-it.yml 中的独立测试库
+ */
+@Tag("mysql")
+@SpringBootTest
+@ActiveProfiles("mysql-it")
+class PondServiceConcurrencyTest {
+
+    private static final int THREADS = 16;
+
+    @Autowired
+    private PondService pondService;
+
+    @Autowired
+    private PondPostRepository postRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private User user;
+    private PondPost post;
+
+    @BeforeEach
+    void setUp() {
+        user = new User();
+        user.setUsername("pond-test-" + UUID.randomUUID().toString().substring(0, 8));
+        user.setPassword("test");
+        user = userRepository.save(user);
+        post = pondService.createPost(user.getId(), "并发评论测试", null, "other", null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pondService.deletePost(post.getId(), user.getId());
+        userRepository.delete(user);
+    }
+
+    @Test
+    void concurrentCommentsAreAllCounted() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                int n = i;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    // 评论自己的动态，不产生异步通知
+                    return pondService.addComment(post.getId(), user.getId(), "评论 " + n, null);
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        PondPost reloaded = postRepository.findById(post.getId()).orElseThrow();
+        assertThat(reloaded.getCommentCount()).isEqualTo(THREADS);
+        assertThat(pondService.getComments(post.getId())).hasSize(THREADS);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.xianyu.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * EXIF 方向：解析 APP1 中的 Orientation，并把图片转正
+ */
+class ThumbnailServiceTest {
+
+    private static final int RED = 0xFF0000;
+
+    @Test
+    void readsOrientationFromBigAndLittleEndianExif() {
+        assertThat(ThumbnailService.exifOrientation(exif(true, 6))).isEqualTo(6);
+        assertThat(ThumbnailService.exifOrientation(exif(false, 8))).isEqualTo(8);
+        assertThat(ThumbnailService.exifOrientation("http://ns.adobe.com/xap/1.0/".getBytes())).isZero();
+    }
+
+    @Test
+    void rotatesAndFlipsToUpright() {
+        // 40x20，左上角为红色
+        BufferedImage image = new BufferedImage(40, 20, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 10; x++) {
+            for (int y = 0; y < 5; y++) {
+                image.setRGB(x, y, RED);
+            }
+        }
+        assertRedCorner(ThumbnailService.orient(image, 1), 40, 20, false, false);
+        assertRedCorner(ThumbnailService.orient(image, 2), 40, 20, true, false);
+        assertRedCorner(ThumbnailService.orient(image, 3), 40, 20, true, true);
+        assertRedCorner(ThumbnailService.orient(image, 4), 40, 20, false, true);
+        assertRedCorner(ThumbnailService.orient(image, 5), 20, 40, false, false);
+        assertRedCorner(ThumbnailService.orient(image, 6), 20, 40, true, false);
+        assertRedCorner(ThumbnailService.orient(image, 7), 20, 40, true, true);
+        assertRedCorner(ThumbnailService.orient(image, 8), 20, 40, false, true);
+    }
+
+    private static void assertRedCorner(BufferedImage image, int width, int height, boolean right, boolean bottom) {
+        assertThat(image.getWidth()).isEqualTo(width);
+        assertThat(image.getHeight()).isEqualTo(height);
+        int x = right ? width - 2 : 1;
+        int y = bottom ? height - 2 : 1;
+        assertThat(image.getRGB(x, y) & RED).isEqualTo(RED);
+        assertThat(image.getRGB(width - 1 - x, height - 1 - y) & RED).isZero();
+    }
+
+    /**
+     * "Exif\0\0" + TIFF 头 + 只有 Orientation 一项的 IFD0
+     */
+    private static byte[] exif(boolean bigEndian, int orientation) {
+        byte[] tiff = bigEndian
+                ? new byte[]{'M', 'M', 0, 42, 0, 0, 0, 8, 0, 1, 0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0, 0, 0, 0, 0}
+                : new byte[]{'I', 'I', 42, 0, 8, 0, 0, 0, 1, 0, 0x12, 0x01, 3, 0, 1, 0, 0, 0, (byte) orientation, 0, 0, 0, 0, 0, 0, 0};
+        byte[] data = new byte[6 + tiff.length];
+        System.arraycopy(new byte[]{'E', 'x', 'i', 'f', 0, 0}, 0, data, 0, 6);
+        System.arraycopy(tiff, 0, data, 6, tiff.length);
+        return data;
+    }
+}